@@ -0,0 +1,309 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One line of a batch: the carrier image, the payload file, where the result
+ * goes and which password to use. Which fields matter depends on the
+ * operation: embed uses all four, extract ignores the payload and verify
+ * ignores the output. A null password reference means no encryption.
+ */
+public final class BatchJob {
+
+    private static final String[] IMAGE_EXTENSIONS = {"png", "bmp", "gif", "jpg", "jpeg", "tif", "tiff"};
+
+    public final Path carrier;
+    public final Path payload;
+    public final Path output;
+    public final String passwordRef;
+
+    public BatchJob(Path carrier, Path payload, Path output, String passwordRef) {
+        if (carrier == null) {
+            throw new IllegalArgumentException("Batch job needs a carrier");
+        }
+        this.carrier = carrier;
+        this.payload = payload;
+        this.output = output;
+        this.passwordRef = passwordRef == null || passwordRef.isEmpty() ? null : passwordRef;
+    }
+
+    /** @return A stable identifier for checkpoints */
+    public String id() {
+        return carrier + "|" + payload + "|" + output;
+    }
+
+    @Override
+    public String toString() {
+        return carrier.toString();
+    }
+
+    /**
+     * Reads a manifest. Files ending in {@code .jsonl} hold one flat JSON
+     * object per line with the keys {@code carrier}, {@code payload},
+     * {@code output} and {@code passwordRef}; anything else is read as CSV
+     * with the columns in that order and an optional header row. Blank lines
+     * and lines starting with {@code #} are skipped, and relative paths are
+     * resolved against the manifest's directory.
+     * @param manifest Manifest file
+     * @return The jobs in file order
+     * @throws IOException if the file cannot be read, a line is malformed or
+     *         two lines name the same output
+     */
+    public static List<BatchJob> readManifest(Path manifest) throws IOException {
+        boolean jsonl = manifest.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        Path base = manifest.toAbsolutePath().getParent();
+        List<BatchJob> jobs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] fields;
+                try {
+                    fields = jsonl ? jsonFields(trimmed) : csvFields(trimmed);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(manifest + ":" + lineNumber + ": " + e.getMessage());
+                }
+                if (!jsonl && jobs.isEmpty() && "carrier".equalsIgnoreCase(fields[0])) {
+                    continue;
+                }
+                if (fields[0] == null || fields[0].isEmpty()) {
+                    throw new IOException(manifest + ":" + lineNumber + ": missing carrier");
+                }
+                jobs.add(new BatchJob(resolve(base, fields[0]), resolve(base, fields[1]),
+                        resolve(base, fields[2]), fields[3]));
+            }
+        }
+        checkDistinctOutputs(jobs);
+        return jobs;
+    }
+
+    /**
+     * Builds jobs for every image in a directory, sorted by name. Embedding
+     * writes {@code stego_<name>.<ext>}, extraction writes {@code <name>.bin}.
+     * Images that are themselves outputs of other jobs, as when a batch is
+     * rerun with its output directory as input, are left out.
+     * @param dir Directory of carrier images
+     * @param payload Payload for every carrier (embed, verify), or null
+     * @param outDir Output directory (embed, extract), or null
+     * @param extract Whether outputs are extracted payloads rather than stego images
+     * @param imageExtension Extension of stego image outputs, such as "png"
+     * @param passwordRef Password reference for every job, or null
+     * @return The jobs
+     * @throws IOException if the directory cannot be listed, or two images
+     *         such as {@code a.png} and {@code a.jpg} would write the same output
+     */
+    public static List<BatchJob> forDirectory(Path dir, Path payload, Path outDir, boolean extract,
+                                              String imageExtension, String passwordRef) throws IOException {
+        List<Path> images = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                if (Files.isRegularFile(p) && isImage(p)) {
+                    images.add(p);
+                }
+            }
+        }
+        images.sort(null);
+        List<BatchJob> jobs = new ArrayList<>();
+        Set<Path> outputs = new HashSet<>();
+        for (Path image : images) {
+            Path output = null;
+            if (outDir != null) {
+                String stem = stem(image.getFileName().toString());
+                output = outDir.resolve(extract ? stem + ".bin" : "stego_" + stem + "." + imageExtension);
+                outputs.add(normalize(output));
+            }
+            jobs.add(new BatchJob(image, payload, output, passwordRef));
+        }
+        jobs.removeIf(job -> outputs.contains(normalize(job.carrier)));
+        checkDistinctOutputs(jobs);
+        return jobs;
+    }
+
+    // Two jobs writing one file would race, and the later one would silently replace the earlier
+    private static void checkDistinctOutputs(List<BatchJob> jobs) throws IOException {
+        Map<Path, BatchJob> seen = new HashMap<>();
+        for (BatchJob job : jobs) {
+            if (job.output == null) {
+                continue;
+            }
+            BatchJob other = seen.putIfAbsent(normalize(job.output), job);
+            if (other != null) {
+                throw new IOException(other.carrier + " and " + job.carrier + " would both write " + job.output);
+            }
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static boolean isImage(Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String ext : IMAGE_EXTENSIONS) {
+            if (name.endsWith("." + ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stem(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static Path resolve(Path base, String field) {
+        if (field == null || field.isEmpty()) {
+            return null;
+        }
+        return base == null ? Path.of(field) : base.resolve(field);
+    }
+
+    // Split a CSV line into four fields; double quotes group commas, "" is a literal quote
+    static String[] csvFields(String line) {
+        String[] fields = new String[4];
+        StringBuilder field = new StringBuilder();
+        int column = 0;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                if (column == 3) {
+                    throw new IllegalArgumentException("more than four columns");
+                }
+                fields[column++] = field.toString().trim();
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields[column] = field.toString().trim();
+        return fields;
+    }
+
+    // Read a flat JSON object of string (or null) values into carrier, payload, output, passwordRef
+    static String[] jsonFields(String line) {
+        Map<String, String> values = new HashMap<>();
+        int[] pos = {0};
+        skipSpace(line, pos);
+        expect(line, pos, '{');
+        skipSpace(line, pos);
+        if (peek(line, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                skipSpace(line, pos);
+                String key = jsonString(line, pos);
+                skipSpace(line, pos);
+                expect(line, pos, ':');
+                skipSpace(line, pos);
+                String value;
+                if (line.startsWith("null", pos[0])) {
+                    value = null;
+                    pos[0] += 4;
+                } else {
+                    value = jsonString(line, pos);
+                }
+                values.put(key, value);
+                skipSpace(line, pos);
+                char c = peek(line, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("expected ',' or '}' at column " + pos[0]);
+                }
+            }
+        }
+        skipSpace(line, pos);
+        if (pos[0] != line.length()) {
+            throw new IllegalArgumentException("trailing characters after object");
+        }
+        String ref = values.containsKey("passwordRef") ? values.get("passwordRef") : values.get("password-ref");
+        return new String[] {values.get("carrier"), values.get("payload"), values.get("output"), ref};
+    }
+
+    private static String jsonString(String s, int[] pos) {
+        expect(s, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = peek(s, pos);
+            pos[0]++;
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = peek(s, pos);
+            pos[0]++;
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos[0] + 4 > s.length()) {
+                        throw new IllegalArgumentException("truncated \\u escape");
+                    }
+                    sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: throw new IllegalArgumentException("bad escape \\" + e);
+            }
+        }
+    }
+
+    private static char peek(String s, int[] pos) {
+        if (pos[0] >= s.length()) {
+            throw new IllegalArgumentException("unexpected end of line");
+        }
+        return s.charAt(pos[0]);
+    }
+
+    private static void expect(String s, int[] pos, char c) {
+        if (peek(s, pos) != c) {
+            throw new IllegalArgumentException("expected '" + c + "' at column " + (pos[0] + 1));
+        }
+        pos[0]++;
+    }
+
+    private static void skipSpace(String s, int[] pos) {
+        while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0]))) {
+            pos[0]++;
+        }
+    }
+}
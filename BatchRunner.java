@@ -0,0 +1,628 @@
+import javax.crypto.AEADBadTagException;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless batch mode: runs embed, extract or verify over many files. Each
+ * job passes through four stages (decode, crypto, embed, encode), each with
+ * its own workers and a bounded hand-off queue, so disk and image codec I/O
+ * for one file overlaps CPU work on another while at most a few images per
+ * worker are in memory. Completed jobs are appended to an optional
+ * checkpoint file and skipped when the batch is run again.
+ *
+ * Passwords are referenced, never written in the manifest: a reference is
+ * either a key in the {@code --passwords} properties file or
+ * {@code env:NAME}. Keys are derived the same way as in
+ * {@link SteganographyApp}, so either can read what the other wrote.
+ */
+public class BatchRunner {
+
+    public enum Operation { EMBED, EXTRACT, VERIFY }
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java SteganographyApp batch embed|extract|verify",
+            "         (--manifest FILE.csv|FILE.jsonl | --dir DIR [--payload FILE] [--out DIR] [--password-ref REF])",
+            "         [--passwords FILE] [--threads N] [--checkpoint FILE]",
+            "         [--format png|bmp] [--level 0-9] [--parallel-deflate] [--scatter] [--compress deflate]",
+            "         [--max-output BYTES] [--metrics]");
+
+    /** Default cap on one decompressed extraction, see {@link #maxOutput}. */
+    public static final long DEFAULT_MAX_OUTPUT = 256L << 20;
+
+    private final Operation operation;
+    private final int threads;
+    private final Properties passwords;
+    private final Path checkpoint;
+    private final PrintStream report;
+    private final KeyCache keys = new KeyCache(KeyDerivation.md5(), 64, Duration.ofHours(1));
+    // Payloads sealed in one run share a salt, so PBKDF2 runs once per password rather than per file
+    private final KeyCache sealKeys = new KeyCache(SealedPayload.kdf(), 64, Duration.ofHours(1));
+    private final byte[] sealSalt = SealedPayload.newSalt();
+    private PngEncoder encoder = PngEncoder.defaults();
+    private boolean bmpOutput;
+    private boolean scatter;
+    private PayloadCodec codec;
+    private long maxOutput = DEFAULT_MAX_OUTPUT;
+
+    /** Per-batch totals. */
+    public static final class Summary {
+        public int completed;
+        public int failed;
+        public int skipped;
+        public long bytes;
+        public long written;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            return String.format(Locale.ROOT,
+                    "%d ok, %d failed, %d skipped; %.1f MB in %.2f s (%.1f MB/s, %.1f files/s), %.1f MB written",
+                    completed, failed, skipped, bytes / 1e6, seconds, bytes / 1e6 / seconds,
+                    (completed + failed) / seconds, written / 1e6);
+        }
+    }
+
+    // A job travelling through the pipeline; fields are filled in by the stages
+    private static final class Item {
+        final BatchJob job;
+        final long started = System.nanoTime();
+        BufferedImage image;
+        byte[] data;
+        byte[] expected;
+        TeaKey key;
+        boolean mapped;
+        int flags;
+        long bytes;
+        long written;
+        Exception error;
+
+        Item(BatchJob job) {
+            this.job = job;
+        }
+    }
+
+    private interface Stage {
+        void run(Item item) throws Exception;
+    }
+
+    /**
+     * @param operation What to do with each job
+     * @param threads Workers per stage
+     * @param passwords Password references, or null if no job is encrypted
+     * @param checkpoint File recording completed jobs, or null for none
+     * @param report Where per-file results go
+     */
+    public BatchRunner(Operation operation, int threads, Properties passwords, Path checkpoint, PrintStream report) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread per stage");
+        }
+        this.operation = operation;
+        this.threads = threads;
+        this.passwords = passwords == null ? new Properties() : passwords;
+        this.checkpoint = checkpoint;
+        this.report = report;
+    }
+
+    /**
+     * Chooses how stego images are written. Uncompressed BMP suits
+     * intermediate hops; carriers BMP cannot hold exactly fall back to PNG.
+     * A 24-bit BMP carrier is copied and embedded through {@link MappedBmp}
+     * without being decoded or encoded.
+     * @param encoder PNG settings
+     * @param bmp Whether to write 24-bit BMP where possible
+     * @return this
+     */
+    public BatchRunner output(PngEncoder encoder, boolean bmp) {
+        this.encoder = encoder;
+        this.bmpOutput = bmp;
+        return this;
+    }
+
+    /**
+     * Compresses payloads before encryption when that makes them smaller.
+     * Extraction decompresses whatever the carrier header says was
+     * compressed, whatever this is set to.
+     * @param codec Codec for embedding, or null to embed payloads as they are
+     * @return this
+     */
+    public BatchRunner compress(PayloadCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Caps what one compressed payload may inflate to on extraction, so a
+     * crafted carrier cannot fill the disk. A job going past it fails and
+     * its partial output is deleted.
+     * @param bytes Largest output file in bytes
+     * @return this
+     */
+    public BatchRunner maxOutput(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Output limit must be positive");
+        }
+        this.maxOutput = bytes;
+        return this;
+    }
+
+    /**
+     * Spreads payload bits over each carrier in an order keyed by the job's
+     * password, see {@link StegoOptions#scatter}. Every job then needs a
+     * password reference.
+     * @param scatter Whether to use the scattered layout
+     * @return this
+     */
+    public BatchRunner scatter(boolean scatter) {
+        this.scatter = scatter;
+        return this;
+    }
+
+    /**
+     * Runs the jobs, printing one line per file, and returns the totals.
+     * Jobs already listed in the checkpoint are skipped; jobs that fail are
+     * reported and left out of the checkpoint so a rerun retries them. An
+     * Error in a worker, such as OutOfMemoryError, stops the whole run and
+     * is rethrown here; memory is bounded by the thread count, which sets
+     * how many images the stage queues hold.
+     * @param jobs Jobs to run
+     * @return Totals for this run
+     * @throws IOException if the checkpoint cannot be read or written
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Summary run(List<BatchJob> jobs) throws IOException, InterruptedException {
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+        Set<String> done = readCheckpoint();
+
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(threads);
+        BlockingQueue<Item> crypted = new ArrayBlockingQueue<>(threads);
+        BlockingQueue<Item> embedded = new ArrayBlockingQueue<>(threads);
+        BlockingQueue<Item> finished = new ArrayBlockingQueue<>(threads);
+        BlockingQueue<Item> pending = new ArrayBlockingQueue<>(threads);
+        AtomicReference<Error> fatal = new AtomicReference<>();
+        Thread caller = Thread.currentThread();
+
+        ExecutorService workers = Executors.newFixedThreadPool(4 * threads + 1, r -> {
+            Thread t = new Thread(r, "batch-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try (BufferedWriter log = checkpoint == null ? null : Files.newBufferedWriter(checkpoint,
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            int queued = 0;
+            for (BatchJob job : jobs) {
+                if (done.contains(operation + "|" + job.id())) {
+                    summary.skipped++;
+                } else {
+                    queued++;
+                }
+            }
+            workers.execute(() -> {
+                try {
+                    for (BatchJob job : jobs) {
+                        if (!done.contains(operation + "|" + job.id())) {
+                            pending.put(new Item(job));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < threads; i++) {
+                workers.execute(worker(pending, decoded, this::decode, fatal, caller));
+                workers.execute(worker(decoded, crypted, this::crypt, fatal, caller));
+                workers.execute(worker(crypted, embedded, this::embed, fatal, caller));
+                workers.execute(worker(embedded, finished, this::encode, fatal, caller));
+            }
+
+            for (int i = 0; i < queued; i++) {
+                Item item;
+                try {
+                    item = finished.take();
+                } catch (InterruptedException e) {
+                    if (fatal.get() != null) {
+                        throw fatal.get();
+                    }
+                    throw e;
+                }
+                long ms = (System.nanoTime() - item.started) / 1_000_000;
+                if (item.error == null) {
+                    summary.completed++;
+                    summary.bytes += item.bytes;
+                    summary.written += item.written;
+                    report.printf(Locale.ROOT, "OK    %s%s (%d ms)%n", item.job,
+                            item.job.output == null || operation == Operation.VERIFY ? "" : " -> " + item.job.output, ms);
+                    if (log != null) {
+                        log.write(operation + "|" + item.job.id());
+                        log.newLine();
+                        log.flush();
+                    }
+                } else {
+                    summary.failed++;
+                    String message = item.error.getMessage() != null ? item.error.getMessage() : item.error.toString();
+                    report.printf(Locale.ROOT, "FAIL  %s: %s%n", item.job, message);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    // Worker loop: take, run the stage unless an earlier stage failed, hand on.
+    // Errors are not per-file failures: the heap may be inconsistent, so wake the caller to abort.
+    private static Runnable worker(BlockingQueue<Item> in, BlockingQueue<Item> out, Stage stage,
+                                   AtomicReference<Error> fatal, Thread caller) {
+        return () -> {
+            try {
+                while (true) {
+                    Item item = in.take();
+                    if (item.error == null) {
+                        try {
+                            stage.run(item);
+                        } catch (Exception e) {
+                            BufferPool.release(item.image);
+                            item.image = null;
+                            item.data = null;
+                            item.error = e;
+                        }
+                    }
+                    out.put(item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Error e) {
+                if (fatal.compareAndSet(null, e)) {
+                    caller.interrupt();
+                }
+                throw e;
+            }
+        };
+    }
+
+    // Stage 1: read files and decode carriers
+    private void decode(Item item) throws IOException {
+        BatchJob job = item.job;
+        item.bytes = Files.size(job.carrier);
+        switch (operation) {
+            case EMBED:
+                requirePath(job.payload, "payload");
+                requirePath(job.output, "output");
+                if (scatter && job.passwordRef == null) {
+                    throw new IOException("Scattered embedding needs a password reference");
+                }
+                if (scatter && codec != null) {
+                    throw new IOException("Compression is recorded in the header, which scattered layouts lack");
+                }
+                // BMP to BMP skips the codecs: bits are written into a mapped copy of the carrier
+                item.mapped = bmpOutput && !scatter && MappedBmp.isSupported(job.carrier);
+                if (!item.mapped) {
+                    try (InputStream in = Files.newInputStream(job.carrier)) {
+                        item.image = LsbEmbedder.read(in);
+                    }
+                }
+                item.data = Files.readAllBytes(job.payload);
+                break;
+            case EXTRACT:
+                requirePath(job.output, "output");
+                item.data = extract(job.carrier, scatterOptions(job));
+                item.flags = scatter ? 0 : headerFlags(job.carrier);
+                break;
+            case VERIFY:
+                requirePath(job.payload, "payload");
+                item.data = extract(job.carrier, scatterOptions(job));
+                item.flags = scatter ? 0 : headerFlags(job.carrier);
+                item.expected = Files.readAllBytes(job.payload);
+                break;
+        }
+    }
+
+    // Stage 2: compress and encrypt before embedding, decrypt after extracting
+    private void crypt(Item item) throws IOException, GeneralSecurityException {
+        if (operation == Operation.EMBED && codec != null) {
+            byte[] packed = PayloadCompression.compress(item.data, codec);
+            if (packed != null) {
+                item.data = packed;
+                item.flags |= StegoHeader.FLAG_COMPRESSED;
+            }
+        }
+        String password = password(item.job.passwordRef);
+        boolean sealed = (item.flags & StegoHeader.FLAG_SEALED) != 0;
+        if (password == null) {
+            if (sealed) {
+                throw new IOException("Payload is encrypted; the job needs a password reference");
+            }
+            return;
+        }
+        if (operation == Operation.EMBED && !scatter) {
+            item.data = SealedPayload.seal(item.data, sealKeys.get(password.toCharArray(), sealSalt), sealSalt);
+            item.flags |= StegoHeader.FLAG_SEALED;
+        } else if (sealed) {
+            // Wrong passwords fail on the tag, before any decryption
+            try {
+                TeaKey master = sealKeys.get(password.toCharArray(), SealedPayload.salt(item.data));
+                item.data = SealedPayload.open(item.data, master);
+            } catch (AEADBadTagException | IllegalArgumentException e) {
+                throw new IOException("Decryption failed: wrong password or tampered payload", e);
+            }
+        } else {
+            // Scattered layouts have no header to flag a sealed payload, so they stay on TEA
+            TeaKey key = keys.get(password.toCharArray(), null);
+            item.key = key;
+            if (operation == Operation.EMBED) {
+                item.data = TEA.encryptWithPadding(item.data, key);
+                item.flags |= StegoHeader.FLAG_ENCRYPTED;
+                return;
+            }
+            try {
+                item.data = TEA.decryptWithPadding(item.data, key);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Decryption failed: wrong password or no encrypted message", e);
+            }
+        }
+    }
+
+    // Stage 3: write payload bits into the carrier, or compare for verify
+    private void embed(Item item) throws IOException {
+        if (operation == Operation.EMBED && !item.mapped) {
+            StegoOptions options = scatter
+                    ? StegoOptions.defaults().scatter(item.key)
+                    : StegoOptions.defaults().flags(item.flags);
+            BufferedImage stego = LsbEmbedder.embed(item.image, item.data, options);
+            if (stego != item.image) {
+                BufferPool.release(item.image);
+            }
+            item.image = stego;
+            item.data = null;
+        } else if (operation == Operation.VERIFY) {
+            byte[] actual = (item.flags & StegoHeader.FLAG_COMPRESSED) != 0
+                    ? PayloadCompression.decompress(item.data, item.expected.length)
+                    : item.data;
+            if (!Arrays.equals(actual, item.expected)) {
+                throw new IOException("Extracted payload does not match " + item.job.payload);
+            }
+            item.data = null;
+            item.expected = null;
+        }
+    }
+
+    // Copies like transferTo, but stops once the output passes maxOutput
+    private long inflate(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            total += n;
+            if (total > maxOutput) {
+                throw new IOException("Decompressed payload larger than " + maxOutput + " bytes");
+            }
+            out.write(buffer, 0, n);
+        }
+        return total;
+    }
+
+    // Stage 4: encode and write the result
+    private void encode(Item item) throws IOException {
+        Path output = item.job.output;
+        if (operation == Operation.VERIFY) {
+            return;
+        }
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        if (item.mapped) {
+            MappedBmp.embed(item.job.carrier, item.data, output, StegoOptions.defaults().flags(item.flags));
+            item.written = Files.size(output);
+            item.data = null;
+        } else if (operation == Operation.EMBED) {
+            item.written = bmpOutput && BmpWriter.canWrite(item.image)
+                    ? BmpWriter.write(item.image, output)
+                    : encoder.write(item.image, output);
+            BufferPool.release(item.image);
+            item.image = null;
+        } else if ((item.flags & StegoHeader.FLAG_COMPRESSED) != 0) {
+            // Inflate straight into the output file
+            try (InputStream in = PayloadCompression.decompress(new ByteArrayInputStream(item.data));
+                 OutputStream out = Files.newOutputStream(output)) {
+                item.written = inflate(in, out);
+            } catch (IOException e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+            item.data = null;
+        } else {
+            Files.write(output, item.data);
+            item.written = item.data.length;
+            item.data = null;
+        }
+    }
+
+    // Scattered layouts need the job's key before anything can be read
+    private StegoOptions scatterOptions(BatchJob job) throws IOException {
+        if (!scatter) {
+            return null;
+        }
+        if (job.passwordRef == null) {
+            throw new IOException("Scattered extraction needs a password reference");
+        }
+        try {
+            return StegoOptions.defaults().scatter(key(job.passwordRef));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Key derivation failed", e);
+        }
+    }
+
+    // Flags from the carrier header; the legacy and scattered layouts have none
+    private static int headerFlags(Path carrier) throws IOException {
+        StegoHeader header = LsbExtractor.readHeader(carrier, false);
+        return header != null ? header.flags : 0;
+    }
+
+    private static byte[] extract(Path carrier, StegoOptions options) throws IOException {
+        byte[] data = options == null ? LsbExtractor.extractLazy(carrier) : LsbExtractor.extract(carrier, options);
+        if (data == null) {
+            throw new IOException("No hidden message found");
+        }
+        return data;
+    }
+
+    private static void requirePath(Path path, String column) throws IOException {
+        if (path == null) {
+            throw new IOException("Manifest line has no " + column);
+        }
+    }
+
+    // Resolve a password reference and fetch its cached TEA key; null means unencrypted
+    private TeaKey key(String ref) throws IOException, GeneralSecurityException {
+        String password = password(ref);
+        return password == null ? null : keys.get(password.toCharArray(), null);
+    }
+
+    // Resolve a password reference; null means unencrypted
+    private String password(String ref) throws IOException {
+        if (ref == null) {
+            return null;
+        }
+        String password = ref.startsWith("env:") ? System.getenv(ref.substring(4)) : passwords.getProperty(ref);
+        if (password == null || password.isEmpty()) {
+            throw new IOException("Unknown password reference " + ref);
+        }
+        return password;
+    }
+
+    private Set<String> readCheckpoint() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            done.addAll(Files.readAllLines(checkpoint, StandardCharsets.UTF_8));
+        }
+        return done;
+    }
+
+    /**
+     * Command-line entry point, reached through {@code SteganographyApp batch ...}.
+     * Exits with status 1 if any job failed and 2 on a usage error.
+     * @param args Operation followed by options
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        Operation operation;
+        try {
+            operation = Operation.valueOf(args[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Path manifest = null, dir = null, payload = null, out = null, passwordFile = null, checkpoint = null;
+        String passwordRef = null;
+        PngEncoder encoder = PngEncoder.defaults();
+        boolean bmp = false;
+        boolean scatter = false;
+        PayloadCodec codec = null;
+        long maxOutput = DEFAULT_MAX_OUTPUT;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--parallel-deflate")) {
+                encoder.parallel();
+                continue;
+            }
+            if (option.equals("--scatter")) {
+                scatter = true;
+                continue;
+            }
+            if (option.equals("--metrics")) {
+                StegoMetrics.enable(true);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + option);
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--manifest": manifest = Path.of(value); break;
+                case "--dir": dir = Path.of(value); break;
+                case "--payload": payload = Path.of(value); break;
+                case "--out": out = Path.of(value); break;
+                case "--password-ref": passwordRef = value; break;
+                case "--passwords": passwordFile = Path.of(value); break;
+                case "--checkpoint": checkpoint = Path.of(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--level": encoder.level(Integer.parseInt(value)); break;
+                case "--compress": codec = PayloadCompression.forName(value); break;
+                case "--max-output": maxOutput = Long.parseLong(value); break;
+                case "--format":
+                    if (!value.equals("png") && !value.equals("bmp")) {
+                        System.err.println("Unknown format " + value);
+                        System.exit(2);
+                    }
+                    bmp = value.equals("bmp");
+                    break;
+                default:
+                    System.err.println("Unknown option " + option);
+                    System.err.println(USAGE);
+                    System.exit(2);
+            }
+        }
+        if ((manifest == null) == (dir == null)) {
+            System.err.println("Give exactly one of --manifest and --dir");
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<BatchJob> jobs = manifest != null
+                ? BatchJob.readManifest(manifest)
+                : BatchJob.forDirectory(dir, payload, out, operation == Operation.EXTRACT, bmp ? "bmp" : "png", passwordRef);
+        Properties passwords = new Properties();
+        if (passwordFile != null) {
+            try (Reader reader = Files.newBufferedReader(passwordFile, StandardCharsets.UTF_8)) {
+                passwords.load(reader);
+            }
+        }
+
+        Summary summary = new BatchRunner(operation, threads, passwords, checkpoint, System.out)
+                .output(encoder, bmp)
+                .scatter(scatter)
+                .compress(codec)
+                .maxOutput(maxOutput)
+                .run(jobs);
+        System.out.println(summary);
+        if (StegoMetrics.isEnabled()) {
+            StegoMetrics.export(MetricsExporter.text(System.out));
+            System.out.println(BufferPool.stats());
+        }
+        System.exit(summary.failed == 0 ? 0 : 1);
+    }
+}
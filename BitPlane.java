@@ -0,0 +1,99 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Word-at-a-time packing of payload bytes into the least significant bit
+ * plane of a carrier raster. Each payload byte maps onto eight consecutive
+ * carrier bytes, most significant bit first, so one {@code long} read and
+ * write handles a whole payload byte.
+ *
+ * None of the methods allocate; callers supply all buffers.
+ */
+public class BitPlane {
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final long LSB_MASK = 0x0101010101010101L;
+    private static final long CLEAR_MASK = ~LSB_MASK;
+    // Multiplying the masked LSBs by this gathers them, MSB first, into the top byte
+    private static final long GATHER = 0x0102040810204080L;
+
+    // SPREAD[b] holds bit i of b (MSB first) in the LSB of byte i of a big-endian long
+    private static final long[] SPREAD = new long[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v |= (long) ((b >>> (7 - i)) & 1) << (56 - 8 * i);
+            }
+            SPREAD[b] = v;
+        }
+    }
+
+    /**
+     * Writes {@code len} payload bytes into the LSBs of {@code len * 8}
+     * carrier bytes.
+     * @param src Payload bytes
+     * @param srcOff First payload byte
+     * @param len Number of payload bytes
+     * @param carrier Carrier raster, modified in place
+     * @param carrierOff First carrier byte
+     */
+    public static void pack(byte[] src, int srcOff, int len, byte[] carrier, int carrierOff) {
+        int c = carrierOff;
+        for (int i = srcOff, end = srcOff + len; i < end; i++, c += 8) {
+            long w = (long) LONG.get(carrier, c);
+            LONG.set(carrier, c, (w & CLEAR_MASK) | SPREAD[src[i] & 0xFF]);
+        }
+    }
+
+    /**
+     * Reads {@code len} payload bytes from the LSBs of {@code len * 8}
+     * carrier bytes.
+     * @param carrier Carrier raster
+     * @param carrierOff First carrier byte
+     * @param dst Destination buffer
+     * @param dstOff First destination byte
+     * @param len Number of payload bytes
+     */
+    public static void unpack(byte[] carrier, int carrierOff, byte[] dst, int dstOff, int len) {
+        int c = carrierOff;
+        for (int i = dstOff, end = dstOff + len; i < end; i++, c += 8) {
+            dst[i] = gather((long) LONG.get(carrier, c));
+        }
+    }
+
+    /**
+     * Writes a 32-bit big-endian value into 32 carrier LSBs.
+     * @param value Value to write
+     * @param carrier Carrier raster, modified in place
+     * @param carrierOff First carrier byte
+     */
+    public static void packInt(int value, byte[] carrier, int carrierOff) {
+        for (int i = 0; i < 4; i++) {
+            int c = carrierOff + i * 8;
+            long w = (long) LONG.get(carrier, c);
+            LONG.set(carrier, c, (w & CLEAR_MASK) | SPREAD[(value >>> (24 - 8 * i)) & 0xFF]);
+        }
+    }
+
+    /**
+     * Reads a 32-bit big-endian value from 32 carrier LSBs.
+     * @param carrier Carrier raster
+     * @param carrierOff First carrier byte
+     * @return The decoded value
+     */
+    public static int unpackInt(byte[] carrier, int carrierOff) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (gather((long) LONG.get(carrier, carrierOff + i * 8)) & 0xFF);
+        }
+        return value;
+    }
+
+    private static byte gather(long w) {
+        return (byte) (((w & LSB_MASK) * GATHER) >>> 56);
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Layout of an uncompressed 24-bit BMP file: where the pixel array starts,
+ * how rows are padded and whether they are stored bottom-up. Each pixel is
+ * stored B, G, R, which is already the logical sample order.
+ */
+public class BmpHeader {
+
+    public final long pixelOffset;
+    public final int width;
+    public final int height;
+    public final boolean bottomUp;
+    public final int rowStride;
+
+    private BmpHeader(long pixelOffset, int width, int height, boolean bottomUp) {
+        this.pixelOffset = pixelOffset;
+        this.width = width;
+        this.height = height;
+        this.bottomUp = bottomUp;
+        this.rowStride = ((width * 3) + 3) & ~3;
+    }
+
+    /**
+     * Parses the file and DIB headers.
+     * @param ch Channel positioned anywhere; only absolute reads are used
+     * @return The header
+     * @throws IOException if the file is not an uncompressed 24-bit BMP
+     */
+    public static BmpHeader read(FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) < 0) {
+                throw new IOException("Truncated BMP header");
+            }
+        }
+        if (buf.get(0) != 'B' || buf.get(1) != 'M') {
+            throw new IOException("Not a BMP file");
+        }
+        long pixelOffset = buf.getInt(10) & 0xFFFFFFFFL;
+        int dibSize = buf.getInt(14);
+        if (dibSize < 40) {
+            throw new IOException("Unsupported BMP header (OS/2 or core header)");
+        }
+        ByteBuffer dib = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        while (dib.hasRemaining()) {
+            if (ch.read(dib, 18 + dib.position()) < 0) {
+                throw new IOException("Truncated BMP header");
+            }
+        }
+        int width = dib.getInt(0);
+        int height = dib.getInt(4);
+        int bitsPerPixel = dib.getShort(10) & 0xFFFF;
+        int compression = dib.getInt(12);
+        if (bitsPerPixel != 24 || compression != 0) {
+            throw new IOException("Only uncompressed 24-bit BMP files are supported, got " + bitsPerPixel
+                    + " bpp, compression " + compression);
+        }
+        if (width <= 0 || height == 0) {
+            throw new IOException("Bad BMP dimensions " + width + "x" + height);
+        }
+        BmpHeader header = new BmpHeader(pixelOffset, width, Math.abs(height), height > 0);
+        if (pixelOffset + (long) header.rowStride * header.height > ch.size()) {
+            throw new IOException("Truncated BMP pixel array");
+        }
+        return header;
+    }
+
+    /**
+     * @param y Row index counted from the top of the image
+     * @return File offset of that row
+     */
+    public long rowPosition(int y) {
+        int fileRow = bottomUp ? height - 1 - y : y;
+        return pixelOffset + (long) fileRow * rowStride;
+    }
+
+    /** @return Total number of carrier samples */
+    public long samples() {
+        return (long) width * height * 3;
+    }
+}
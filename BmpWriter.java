@@ -0,0 +1,107 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes uncompressed 24-bit BMP files, the cheapest lossless output for
+ * intermediate pipeline hops: no filtering and no deflate, and the result
+ * can be embedded into or read in place by {@link MappedBmp}. Only opaque
+ * three-channel images qualify, since anything else would change the
+ * samples the payload bits live in.
+ */
+public class BmpWriter {
+
+    /**
+     * @param image Image to test
+     * @return Whether the image can be written without changing its samples
+     */
+    public static boolean canWrite(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes the image to a file.
+     * @param image Opaque RGB image
+     * @param file Destination BMP file
+     * @return Number of bytes written
+     * @throws IOException if the image type is unsupported or the write fails
+     */
+    public static long write(BufferedImage image, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            return write(image, out);
+        }
+    }
+
+    /**
+     * Writes the image as a bottom-up 24-bit BMP. The stream is not closed.
+     * @param image Opaque RGB image
+     * @param out Destination stream
+     * @return Number of bytes written
+     * @throws IOException if the image type is unsupported or the write fails
+     */
+    public static long write(BufferedImage image, OutputStream out) throws IOException {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.ENCODE)) {
+            long written = encode(image, out);
+            span.done(written);
+            return written;
+        }
+    }
+
+    private static long encode(BufferedImage image, OutputStream out) throws IOException {
+        if (!canWrite(image)) {
+            throw new IOException("24-bit BMP output needs an opaque RGB image");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowStride = ((width * 3) + 3) & ~3;
+        long imageSize = (long) rowStride * height;
+        if (54 + imageSize > 0xFFFFFFFFL) {
+            throw new IOException("Image too large for BMP");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(54).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'B').put((byte) 'M');
+        header.putInt((int) (54 + imageSize));
+        header.putInt(0);
+        header.putInt(54);
+        header.putInt(40);
+        header.putInt(width);
+        header.putInt(height);
+        header.putShort((short) 1);
+        header.putShort((short) 24);
+        header.putInt(0);
+        header.putInt((int) imageSize);
+        header.putInt(2835);
+        header.putInt(2835);
+        header.putInt(0);
+        header.putInt(0);
+        out.write(header.array());
+
+        int[] argb = new int[width];
+        byte[] row = new byte[rowStride];
+        for (int y = height - 1; y >= 0; y--) {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+            for (int x = 0, i = 0; x < width; x++) {
+                int p = argb[x];
+                row[i++] = (byte) p;
+                row[i++] = (byte) (p >>> 8);
+                row[i++] = (byte) (p >>> 16);
+            }
+            out.write(row);
+        }
+        out.flush();
+        return 54 + imageSize;
+    }
+}
@@ -0,0 +1,299 @@
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses the large short-lived buffers of embedding and extraction: decoded
+ * images, BGR conversions and the PNG encoder's band buffers. At 12 MP and
+ * above each operation otherwise leaves tens of megabytes of garbage behind.
+ *
+ * Byte arrays come in power-of-two size classes from {@link #MIN_ARRAY}
+ * bytes and may be longer than asked for. Images are kept per type and
+ * size; a borrowed image has unspecified pixels. Each array size class
+ * has its own lock, so band buffers of different sizes do not contend.
+ * Memory held by idle buffers is capped at
+ * {@code -Dstego.pool.bytes} (default: an eighth of the heap, at most
+ * 256 MB); releases beyond that are dropped for the GC. Thread-safe.
+ *
+ * Only release a buffer once nothing references it any more.
+ */
+public class BufferPool {
+
+    /** Smallest pooled array; smaller requests are allocated directly. */
+    public static final int MIN_ARRAY = 4096;
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 30;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayDeque<byte[]>[] ARRAYS = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    private static final Map<ImageKey, ArrayDeque<BufferedImage>> IMAGES = new HashMap<>();
+    private static final AtomicLong RETAINED = new AtomicLong();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder DROPS = new LongAdder();
+    private static volatile long capacity = Long.getLong("stego.pool.bytes",
+            Math.min(Runtime.getRuntime().maxMemory() / 8, 256L << 20));
+
+    static {
+        for (int i = 0; i < ARRAYS.length; i++) {
+            ARRAYS[i] = new ArrayDeque<>();
+        }
+    }
+
+    /** Counters since start or the last {@link #clear()}. */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long drops;
+        public final long retainedBytes;
+
+        Stats(long hits, long misses, long drops, long retainedBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.drops = drops;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /** @return Fraction of requests served from the pool */
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "pool       hits=%d misses=%d hitRate=%.1f%% drops=%d retained=%d",
+                    hits, misses, hitRate() * 100, drops, retainedBytes);
+        }
+    }
+
+    // Image shape; only standard types are pooled, so type and size identify the layout
+    private static final class ImageKey {
+        final int type;
+        final int width;
+        final int height;
+
+        ImageKey(int type, int width, int height) {
+            this.type = type;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ImageKey)) {
+                return false;
+            }
+            ImageKey k = (ImageKey) o;
+            return type == k.type && width == k.width && height == k.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type * 31 + width) * 31 + height;
+        }
+    }
+
+    /**
+     * @param minLength Bytes needed
+     * @return An array at least that long, with unspecified contents
+     */
+    public static byte[] bytes(int minLength) {
+        int c = sizeClass(minLength);
+        if (c < 0) {
+            return new byte[minLength];
+        }
+        ArrayDeque<byte[]> free = ARRAYS[c];
+        byte[] array;
+        synchronized (free) {
+            array = free.pollLast();
+        }
+        if (array != null) {
+            RETAINED.addAndGet(-array.length);
+            HITS.increment();
+            return array;
+        }
+        MISSES.increment();
+        return new byte[1 << (c + MIN_SHIFT)];
+    }
+
+    /**
+     * Returns an array to the pool. Arrays not obtained from {@link #bytes}
+     * are accepted if their length is a size class, and ignored otherwise.
+     * @param array Array no longer in use, or null
+     */
+    public static void release(byte[] array) {
+        if (array == null || array.length < MIN_ARRAY || Integer.bitCount(array.length) != 1
+                || array.length > 1 << MAX_SHIFT) {
+            return;
+        }
+        ArrayDeque<byte[]> free = ARRAYS[Integer.numberOfTrailingZeros(array.length) - MIN_SHIFT];
+        if (!reserve(array.length)) {
+            return;
+        }
+        synchronized (free) {
+            for (byte[] a : free) {
+                if (a == array) {
+                    RETAINED.addAndGet(-array.length);
+                    return;
+                }
+            }
+            free.addLast(array);
+        }
+    }
+
+    /**
+     * @param width Image width
+     * @param height Image height
+     * @param type A standard BufferedImage type, not TYPE_CUSTOM; indexed
+     *             types come with the default palette
+     * @return An image of that shape with unspecified pixels
+     */
+    public static BufferedImage image(int width, int height, int type) {
+        ImageKey key = new ImageKey(type, width, height);
+        BufferedImage image = null;
+        synchronized (IMAGES) {
+            ArrayDeque<BufferedImage> free = IMAGES.get(key);
+            if (free != null) {
+                image = free.pollLast();
+            }
+        }
+        if (image != null) {
+            RETAINED.addAndGet(-StegoMetrics.pixelBytes(image));
+            HITS.increment();
+            return image;
+        }
+        MISSES.increment();
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Returns an image to the pool. Images of custom types, indexed images,
+     * whose palette the pool cannot reproduce, and subimages are ignored.
+     * @param image Image no longer in use, or null
+     */
+    public static void release(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM
+                || image.getColorModel() instanceof IndexColorModel) {
+            return;
+        }
+        WritableRaster raster = image.getRaster();
+        if (raster.getParent() != null || raster.getMinX() != 0 || raster.getMinY() != 0) {
+            return;
+        }
+        long size = StegoMetrics.pixelBytes(image);
+        if (!reserve(size)) {
+            return;
+        }
+        ImageKey key = new ImageKey(image.getType(), image.getWidth(), image.getHeight());
+        synchronized (IMAGES) {
+            ArrayDeque<BufferedImage> free = IMAGES.computeIfAbsent(key, k -> new ArrayDeque<>());
+            for (BufferedImage i : free) {
+                if (i == image) {
+                    RETAINED.addAndGet(-size);
+                    return;
+                }
+            }
+            free.addLast(image);
+        }
+    }
+
+    /**
+     * Read parameters that decode the reader's first image into a pooled
+     * image of the type the reader would pick itself, so the pixels are the
+     * same as without the pool. Indexed images are left to the reader: a
+     * pooled one would carry the default palette, not the file's.
+     * @param reader Reader with its input set
+     * @return Parameters for {@code reader.read(0, param)}
+     * @throws IOException if the image header cannot be read
+     */
+    static ImageReadParam readParam(ImageReader reader) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (types != null && types.hasNext()) {
+            ImageTypeSpecifier spec = types.next();
+            int type = spec.getBufferedImageType();
+            if (type != BufferedImage.TYPE_CUSTOM && !(spec.getColorModel() instanceof IndexColorModel)) {
+                param.setDestination(image(reader.getWidth(0), reader.getHeight(0), type));
+            }
+        }
+        return param;
+    }
+
+    /**
+     * Caps the memory held by idle buffers, dropping buffers if needed.
+     * @param bytes Largest total size of pooled buffers; 0 disables pooling
+     */
+    public static void capacity(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        capacity = bytes;
+        if (RETAINED.get() > bytes) {
+            clear();
+        }
+    }
+
+    /** Drops every pooled buffer and resets the counters. */
+    public static void clear() {
+        for (ArrayDeque<byte[]> free : ARRAYS) {
+            synchronized (free) {
+                for (byte[] a : free) {
+                    RETAINED.addAndGet(-a.length);
+                }
+                free.clear();
+            }
+        }
+        synchronized (IMAGES) {
+            for (ArrayDeque<BufferedImage> free : IMAGES.values()) {
+                for (BufferedImage i : free) {
+                    RETAINED.addAndGet(-StegoMetrics.pixelBytes(i));
+                }
+            }
+            IMAGES.clear();
+        }
+        HITS.reset();
+        MISSES.reset();
+        DROPS.reset();
+    }
+
+    /** @return Current counters and pooled bytes */
+    public static Stats stats() {
+        return new Stats(HITS.sum(), MISSES.sum(), DROPS.sum(), RETAINED.get());
+    }
+
+    // Index of the smallest class holding minLength, or -1 if it is not pooled
+    private static int sizeClass(int minLength) {
+        if (minLength < MIN_ARRAY || minLength > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(minLength - 1) - MIN_SHIFT;
+    }
+
+    // Count a release against the cap; false means drop the buffer
+    private static boolean reserve(long size) {
+        long limit = capacity;
+        while (true) {
+            long held = RETAINED.get();
+            if (held + size > limit) {
+                DROPS.increment();
+                return false;
+            }
+            if (RETAINED.compareAndSet(held, held + size)) {
+                return true;
+            }
+        }
+    }
+}
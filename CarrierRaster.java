@@ -0,0 +1,374 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * View of an image's pixel storage as a flat sequence of 8-bit samples whose
+ * least significant bits carry the payload. Embedding and extraction run
+ * directly against the image's own data buffer, so no converted copy of the
+ * image is needed and the original image type survives the round trip.
+ *
+ * Samples are ordered pixel by pixel, left to right and top to bottom. Within
+ * a pixel the colour components come in reverse band order (B, G, R for RGB
+ * images), which matches the memory layout of TYPE_3BYTE_BGR. When the alpha
+ * plane is used as extra capacity it comes first (A, B, G, R), matching
+ * TYPE_4BYTE_ABGR.
+ */
+public abstract class CarrierRaster {
+
+    /**
+     * Wraps the image's raster, or returns null if its layout cannot carry
+     * LSBs losslessly (indexed colour, premultiplied alpha, samples wider than
+     * 8 bits, or an unknown buffer layout).
+     * @param image Carrier image
+     * @param useAlpha Whether the alpha plane, if any, carries payload bits too
+     * @return The adapter, or null if the image must be converted first
+     * @throws IllegalArgumentException if the image has more than Integer.MAX_VALUE samples
+     */
+    public static CarrierRaster of(BufferedImage image, boolean useAlpha) {
+        ColorModel cm = image.getColorModel();
+        if (cm instanceof IndexColorModel || cm.isAlphaPremultiplied()) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return null;
+            }
+        }
+
+        int[] bands = logicalBands(cm, useAlpha);
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        if (buffer instanceof DataBufferByte && sm instanceof ComponentSampleModel && buffer.getNumBanks() == 1) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            int[] bandOffsets = csm.getBandOffsets();
+            int[] offsets = new int[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                offsets[i] = bandOffsets[bands[i]];
+            }
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int pixelStride = csm.getPixelStride();
+            int scanlineStride = csm.getScanlineStride();
+            int base = buffer.getOffset() - ty * scanlineStride - tx * pixelStride;
+
+            boolean contiguous = pixelStride == bands.length && scanlineStride == width * pixelStride;
+            for (int i = 0; i < offsets.length && contiguous; i++) {
+                contiguous = offsets[i] == i;
+            }
+            if (contiguous) {
+                return new ContiguousBytes(data, base, width, height, bands.length);
+            }
+            return new InterleavedBytes(data, base, width, height, pixelStride, scanlineStride, offsets);
+        }
+
+        if (buffer instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+            int[] bitOffsets = sppsm.getBitOffsets();
+            int[] shifts = new int[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                shifts[i] = bitOffsets[bands[i]];
+            }
+            int[] data = ((DataBufferInt) buffer).getData();
+            int base = buffer.getOffset() + sppsm.getOffset(-tx, -ty);
+            return new PackedInts(data, base, width, height, sppsm.getScanlineStride(), shifts);
+        }
+
+        return null;
+    }
+
+    // Colour bands in reverse order, preceded by the alpha band when it is used
+    private static int[] logicalBands(ColorModel cm, boolean useAlpha) {
+        int colors = cm.getNumColorComponents();
+        boolean alpha = useAlpha && cm.hasAlpha();
+        int[] bands = new int[colors + (alpha ? 1 : 0)];
+        int i = 0;
+        if (alpha) {
+            bands[i++] = colors;
+        }
+        for (int b = colors - 1; b >= 0; b--) {
+            bands[i++] = b;
+        }
+        return bands;
+    }
+
+    protected final int samples;
+    protected final int samplesPerPixel;
+    protected final int width;
+    protected final int height;
+
+    protected CarrierRaster(int width, int height, int samplesPerPixel) {
+        long samples = (long) width * height * samplesPerPixel;
+        if (samples > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large: " + width + "x" + height + " with "
+                    + samplesPerPixel + " samples per pixel exceeds " + Integer.MAX_VALUE + " samples");
+        }
+        this.samples = (int) samples;
+        this.samplesPerPixel = samplesPerPixel;
+        this.width = width;
+        this.height = height;
+    }
+
+    /** @return Number of samples available to carry bits */
+    public int samples() {
+        return samples;
+    }
+
+    /** @return Samples contributed by each pixel */
+    public int samplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    /** @return Image width in pixels */
+    public int width() {
+        return width;
+    }
+
+    /** @return Image height in pixels */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @param sample Logical sample index
+     * @return The whole 8-bit sample value
+     */
+    public abstract int getSample(int sample);
+
+    /**
+     * @param sample Logical sample index
+     * @param value New 8-bit sample value
+     */
+    public abstract void setSample(int sample, int value);
+
+    /**
+     * @param sample Logical sample index
+     * @return The sample's least significant bit
+     */
+    public abstract int getBit(int sample);
+
+    /**
+     * @param sample Logical sample index
+     * @param bit New least significant bit, 0 or 1
+     */
+    public abstract void setBit(int sample, int bit);
+
+    /**
+     * Writes {@code len} bytes into the LSBs of {@code len * 8} samples.
+     * @param src Payload bytes
+     * @param srcOff First payload byte
+     * @param len Number of payload bytes
+     * @param sampleOff First sample
+     */
+    public void pack(byte[] src, int srcOff, int len, int sampleOff) {
+        int s = sampleOff;
+        for (int i = srcOff, end = srcOff + len; i < end; i++) {
+            int b = src[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                setBit(s++, (b >> bit) & 1);
+            }
+        }
+    }
+
+    /**
+     * Reads {@code len} bytes from the LSBs of {@code len * 8} samples.
+     * @param sampleOff First sample
+     * @param dst Destination buffer
+     * @param dstOff First destination byte
+     * @param len Number of bytes
+     */
+    public void unpack(int sampleOff, byte[] dst, int dstOff, int len) {
+        int s = sampleOff;
+        for (int i = dstOff, end = dstOff + len; i < end; i++) {
+            int b = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                b = (b << 1) | getBit(s++);
+            }
+            dst[i] = (byte) b;
+        }
+    }
+
+    /**
+     * Writes a 32-bit big-endian value into 32 sample LSBs.
+     * @param value Value to write
+     * @param sampleOff First sample
+     */
+    public void packInt(int value, int sampleOff) {
+        for (int i = 0; i < 32; i++) {
+            setBit(sampleOff + i, (value >>> (31 - i)) & 1);
+        }
+    }
+
+    /**
+     * Reads a 32-bit big-endian value from 32 sample LSBs.
+     * @param sampleOff First sample
+     * @return The decoded value
+     */
+    public int unpackInt(int sampleOff) {
+        int value = 0;
+        for (int i = 0; i < 32; i++) {
+            value = (value << 1) | getBit(sampleOff + i);
+        }
+        return value;
+    }
+
+    // Byte samples laid out exactly in logical order, e.g. TYPE_3BYTE_BGR
+    private static final class ContiguousBytes extends CarrierRaster {
+        private final byte[] data;
+        private final int base;
+
+        ContiguousBytes(byte[] data, int base, int width, int height, int samplesPerPixel) {
+            super(width, height, samplesPerPixel);
+            this.data = data;
+            this.base = base;
+        }
+
+        @Override
+        public int getSample(int sample) {
+            return data[base + sample] & 0xFF;
+        }
+
+        @Override
+        public void setSample(int sample, int value) {
+            data[base + sample] = (byte) value;
+        }
+
+        @Override
+        public int getBit(int sample) {
+            return data[base + sample] & 1;
+        }
+
+        @Override
+        public void setBit(int sample, int bit) {
+            int i = base + sample;
+            data[i] = (byte) ((data[i] & 0xFE) | bit);
+        }
+
+        @Override
+        public void pack(byte[] src, int srcOff, int len, int sampleOff) {
+            BitPlane.pack(src, srcOff, len, data, base + sampleOff);
+        }
+
+        @Override
+        public void unpack(int sampleOff, byte[] dst, int dstOff, int len) {
+            BitPlane.unpack(data, base + sampleOff, dst, dstOff, len);
+        }
+
+        @Override
+        public void packInt(int value, int sampleOff) {
+            BitPlane.packInt(value, data, base + sampleOff);
+        }
+
+        @Override
+        public int unpackInt(int sampleOff) {
+            return BitPlane.unpackInt(data, base + sampleOff);
+        }
+    }
+
+    // Pixel-interleaved byte samples in any band order, stride or padding
+    private static final class InterleavedBytes extends CarrierRaster {
+        private final byte[] data;
+        private final int base;
+        private final int pixelStride;
+        private final int scanlineStride;
+        private final int[] offsets;
+
+        InterleavedBytes(byte[] data, int base, int width, int height, int pixelStride, int scanlineStride, int[] offsets) {
+            super(width, height, offsets.length);
+            this.data = data;
+            this.base = base;
+            this.pixelStride = pixelStride;
+            this.scanlineStride = scanlineStride;
+            this.offsets = offsets;
+        }
+
+        private int index(int sample) {
+            int pixel = sample / samplesPerPixel;
+            int y = pixel / width;
+            int x = pixel - y * width;
+            return base + y * scanlineStride + x * pixelStride + offsets[sample - pixel * samplesPerPixel];
+        }
+
+        @Override
+        public int getSample(int sample) {
+            return data[index(sample)] & 0xFF;
+        }
+
+        @Override
+        public void setSample(int sample, int value) {
+            data[index(sample)] = (byte) value;
+        }
+
+        @Override
+        public int getBit(int sample) {
+            return data[index(sample)] & 1;
+        }
+
+        @Override
+        public void setBit(int sample, int bit) {
+            int i = index(sample);
+            data[i] = (byte) ((data[i] & 0xFE) | bit);
+        }
+    }
+
+    // One pixel per int, e.g. TYPE_INT_RGB and TYPE_INT_ARGB
+    private static final class PackedInts extends CarrierRaster {
+        private final int[] data;
+        private final int base;
+        private final int scanlineStride;
+        private final int[] shifts;
+
+        PackedInts(int[] data, int base, int width, int height, int scanlineStride, int[] shifts) {
+            super(width, height, shifts.length);
+            this.data = data;
+            this.base = base;
+            this.scanlineStride = scanlineStride;
+            this.shifts = shifts;
+        }
+
+        private int index(int pixel) {
+            int y = pixel / width;
+            return base + y * scanlineStride + (pixel - y * width);
+        }
+
+        @Override
+        public int getSample(int sample) {
+            int pixel = sample / samplesPerPixel;
+            return (data[index(pixel)] >>> shifts[sample - pixel * samplesPerPixel]) & 0xFF;
+        }
+
+        @Override
+        public void setSample(int sample, int value) {
+            int pixel = sample / samplesPerPixel;
+            int i = index(pixel);
+            int shift = shifts[sample - pixel * samplesPerPixel];
+            data[i] = (data[i] & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+        }
+
+        @Override
+        public int getBit(int sample) {
+            int pixel = sample / samplesPerPixel;
+            return (data[index(pixel)] >>> shifts[sample - pixel * samplesPerPixel]) & 1;
+        }
+
+        @Override
+        public void setBit(int sample, int bit) {
+            int pixel = sample / samplesPerPixel;
+            int i = index(pixel);
+            int mask = 1 << shifts[sample - pixel * samplesPerPixel];
+            data[i] = (data[i] & ~mask) | (bit != 0 ? mask : 0);
+        }
+    }
+}
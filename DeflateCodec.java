@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Raw Deflate from {@code java.util.zip}, without zlib or gzip framing since
+ * the carrier header already checksums the payload. Always available.
+ */
+public class DeflateCodec implements PayloadCodec {
+
+    public static final int ID = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    /** Best compression; payloads are small next to the carrier work. */
+    public DeflateCodec() {
+        this(Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * @param level Deflate level, 0 to 9
+     */
+    public DeflateCodec(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Level must be 0 to 9");
+        }
+        this.level = level;
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        Deflater deflater = new Deflater(level, true);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time-expiring cache of derived {@link TeaKey}s keyed by
+ * password and salt, so a batch of files under one password pays for
+ * {@link KeyDerivation#derive} once. Entries are looked up by a SHA-256
+ * digest of the derivation id, salt and password; the password itself is
+ * never stored. When full the least recently used entry is evicted, and
+ * entries older than the time-to-live are derived again. Thread-safe.
+ */
+public class KeyCache {
+
+    private final KeyDerivation kdf;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+
+    private static final class Entry {
+        final TeaKey key;
+        final long created;
+
+        Entry(TeaKey key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+    }
+
+    /**
+     * @param kdf Derivation to run on a miss
+     * @param maxEntries Largest number of keys kept
+     * @param ttl How long a derived key stays usable
+     */
+    public KeyCache(KeyDerivation kdf, int maxEntries, Duration ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one key");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Time-to-live must be positive");
+        }
+        this.kdf = kdf;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > KeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the key for a password, deriving it on a miss or after expiry.
+     * @param password Password characters; not retained
+     * @param salt Salt bytes, or null for derivations that take none
+     * @return The shared parsed key
+     * @throws GeneralSecurityException If derivation fails
+     */
+    public TeaKey get(char[] password, byte[] salt) throws GeneralSecurityException {
+        ByteBuffer id = lookupId(password, salt);
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry e = entries.get(id);
+            if (e != null && now - e.created < ttlNanos) {
+                return e.key;
+            }
+        }
+        // Derive outside the lock so a slow KDF does not block hits for other passwords
+        byte[] raw = kdf.derive(password, salt);
+        TeaKey key = TeaKey.of(raw);
+        Arrays.fill(raw, (byte) 0);
+        synchronized (this) {
+            entries.put(id, new Entry(key, now));
+        }
+        return key;
+    }
+
+    /** Drops entries whose time-to-live has passed. */
+    public synchronized void purgeExpired() {
+        long now = System.nanoTime();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().created >= ttlNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Drops every cached key, for example when the user logs out. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // SHA-256 over kdf id, salt length, salt and UTF-8 password
+    private ByteBuffer lookupId(char[] password, byte[] salt) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(kdf.id().getBytes(StandardCharsets.UTF_8));
+        int saltLength = salt == null ? -1 : salt.length;
+        md.update(ByteBuffer.allocate(4).putInt(saltLength).array());
+        if (salt != null) {
+            md.update(salt);
+        }
+        ByteBuffer utf8 = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        md.update(utf8);
+        Arrays.fill(utf8.array(), (byte) 0);
+        return ByteBuffer.wrap(md.digest());
+    }
+}
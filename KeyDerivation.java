@@ -0,0 +1,87 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Turns a password into a 16-byte TEA key. {@link #md5()} is the original
+ * scheme used by {@link SteganographyApp} and ignores the salt;
+ * {@link #pbkdf2(int)} is slower by design and tunable through its
+ * iteration count. Pair either with {@link KeyCache} so the cost is paid
+ * once per password rather than once per file.
+ */
+public abstract class KeyDerivation {
+
+    /** Iteration count used by {@link #pbkdf2()}. */
+    public static final int DEFAULT_PBKDF2_ITERATIONS = 210_000;
+
+    private static final KeyDerivation MD5 = new KeyDerivation() {
+        @Override
+        public byte[] derive(char[] password, byte[] salt) throws GeneralSecurityException {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            ByteBuffer utf8 = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            md.update(utf8);
+            Arrays.fill(utf8.array(), (byte) 0);
+            return Arrays.copyOf(md.digest(), 16);
+        }
+
+        @Override
+        public String id() {
+            return "MD5";
+        }
+    };
+
+    /** @return Unsalted MD5 of the UTF-8 password, compatible with existing images */
+    public static KeyDerivation md5() {
+        return MD5;
+    }
+
+    /** @return PBKDF2 with HMAC-SHA256 and {@link #DEFAULT_PBKDF2_ITERATIONS} */
+    public static KeyDerivation pbkdf2() {
+        return pbkdf2(DEFAULT_PBKDF2_ITERATIONS);
+    }
+
+    /**
+     * @param iterations PBKDF2 iteration count; higher is slower to derive and to brute-force
+     * @return PBKDF2 with HMAC-SHA256, truncated to a 128-bit key
+     */
+    public static KeyDerivation pbkdf2(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        return new KeyDerivation() {
+            @Override
+            public byte[] derive(char[] password, byte[] salt) throws GeneralSecurityException {
+                if (salt == null || salt.length == 0) {
+                    throw new IllegalArgumentException("PBKDF2 needs a salt");
+                }
+                PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, 128);
+                try {
+                    return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                } finally {
+                    spec.clearPassword();
+                }
+            }
+
+            @Override
+            public String id() {
+                return "PBKDF2WithHmacSHA256/" + iterations;
+            }
+        };
+    }
+
+    /**
+     * @param password Password characters; not retained
+     * @param salt Salt bytes, ignored by {@link #md5()}
+     * @return 16-byte key
+     * @throws GeneralSecurityException If the underlying algorithm is unavailable
+     */
+    public abstract byte[] derive(char[] password, byte[] salt) throws GeneralSecurityException;
+
+    /** @return A name that differs whenever derived keys would differ */
+    public abstract String id();
+}
@@ -0,0 +1,66 @@
+/**
+ * Collects payload bytes from the LSBs of samples that arrive in arbitrary
+ * chunks, such as decoded scanlines. Whole bytes go through
+ * {@link BitPlane#unpack}; only bytes split across chunks are assembled bit
+ * by bit.
+ */
+public class LsbBitReader {
+
+    private byte[] dst;
+    private int pos;
+    private int end;
+    private int acc;
+    private int bits;
+
+    /**
+     * Starts filling a new destination range. Any partially assembled byte is
+     * carried over.
+     * @param dst Destination buffer
+     * @param off First byte to fill
+     * @param len Number of bytes to fill
+     */
+    public void reset(byte[] dst, int off, int len) {
+        this.dst = dst;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    /**
+     * Consumes samples until the destination range is full or the samples
+     * run out.
+     * @param samples Carrier samples in logical order
+     * @param off First sample
+     * @param len Number of samples available
+     * @return Number of samples consumed
+     */
+    public int read(byte[] samples, int off, int len) {
+        int s = off;
+        int limit = off + len;
+        while (s < limit && pos < end) {
+            if (bits == 0 && limit - s >= 8) {
+                int n = Math.min((limit - s) >>> 3, end - pos);
+                BitPlane.unpack(samples, s, dst, pos, n);
+                s += n * 8;
+                pos += n;
+                continue;
+            }
+            acc = (acc << 1) | (samples[s++] & 1);
+            if (++bits == 8) {
+                dst[pos++] = (byte) acc;
+                acc = 0;
+                bits = 0;
+            }
+        }
+        return s - off;
+    }
+
+    /** @return Whether the current destination range is complete */
+    public boolean isFull() {
+        return pos == end;
+    }
+
+    /** @return Bytes written into the current destination range so far */
+    public int position() {
+        return pos;
+    }
+}
@@ -0,0 +1,93 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Spreads payload bytes over the LSBs of samples that arrive in arbitrary
+ * chunks, such as decoded scanlines. Whole bytes go through
+ * {@link BitPlane#pack}; only bytes split across chunks are written bit by
+ * bit.
+ */
+public class LsbBitWriter {
+
+    private byte[] src;
+    private int pos;
+    private int end;
+    private int cur;
+    private int bits;
+
+    /**
+     * Starts draining a new source range. Bits left over from the previous
+     * range are still written first.
+     * @param src Payload bytes
+     * @param off First byte
+     * @param len Number of bytes
+     */
+    public void reset(byte[] src, int off, int len) {
+        this.src = src;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    /**
+     * Writes payload bits until the source range is drained or the samples
+     * run out.
+     * @param samples Carrier samples in logical order, modified in place
+     * @param off First sample
+     * @param len Number of samples available
+     * @return Number of samples written
+     */
+    public int write(byte[] samples, int off, int len) {
+        int s = off;
+        int limit = off + len;
+        while (s < limit) {
+            if (bits == 0) {
+                if (pos == end) {
+                    break;
+                }
+                if (limit - s >= 8) {
+                    int n = Math.min((limit - s) >>> 3, end - pos);
+                    BitPlane.pack(src, pos, n, samples, s);
+                    s += n * 8;
+                    pos += n;
+                    continue;
+                }
+                cur = src[pos++] & 0xFF;
+                bits = 8;
+            }
+            bits--;
+            samples[s] = (byte) ((samples[s] & 0xFE) | ((cur >>> bits) & 1));
+            s++;
+        }
+        return s - off;
+    }
+
+    /**
+     * Writes payload bits into samples held in a buffer, such as a mapped
+     * file, flipping LSBs in place with absolute gets and puts.
+     * @param samples Carrier samples in logical order, modified in place
+     * @param off Index of the first sample
+     * @param len Number of samples available
+     * @return Number of samples written
+     */
+    public int write(ByteBuffer samples, int off, int len) {
+        int s = off;
+        int limit = off + len;
+        while (s < limit) {
+            if (bits == 0) {
+                if (pos == end) {
+                    break;
+                }
+                cur = src[pos++] & 0xFF;
+                bits = 8;
+            }
+            bits--;
+            samples.put(s, (byte) ((samples.get(s) & 0xFE) | ((cur >>> bits) & 1)));
+            s++;
+        }
+        return s - off;
+    }
+
+    /** @return Whether every bit of the current source range has been written */
+    public boolean isDrained() {
+        return pos == end && bits == 0;
+    }
+}
@@ -0,0 +1,355 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Headless LSB embedding engine. Nothing in here touches Swing or AWT
+ * windowing, so it is safe to drive from a JVM started with
+ * {@code -Djava.awt.headless=true}.
+ *
+ * The default carrier layout is a 32-bit big-endian length followed by the
+ * message bytes, one bit per carrier byte, most significant bit first.
+ * {@link StegoOptions#header} swaps the length for a {@link StegoHeader}
+ * that also carries a payload checksum.
+ */
+public class LsbEmbedder {
+
+    /** Number of carrier bytes taken by the length prefix. */
+    public static final int LENGTH_BITS = 32;
+
+    /**
+     * Length prefix value announcing that a 64-bit length follows. Only the
+     * streaming embedder writes it, for payloads beyond 2 GB.
+     */
+    public static final int LONG_LENGTH_MARKER = -1;
+
+    /** Number of carrier bytes taken by the marker plus 64-bit length. */
+    public static final int LONG_LENGTH_BITS = 96;
+
+    /**
+     * Returns the largest message (in bytes) that fits in the given image.
+     * @param image Carrier image
+     * @return Capacity in bytes, excluding the length prefix
+     */
+    public static int capacity(BufferedImage image) {
+        return capacity(image, false);
+    }
+
+    /**
+     * Returns the largest message (in bytes) that fits in the given image.
+     * @param image Carrier image
+     * @param useAlpha Whether the alpha plane carries payload bits too
+     * @return Capacity in bytes, excluding the length prefix
+     */
+    public static int capacity(BufferedImage image, boolean useAlpha) {
+        CarrierRaster raster = CarrierRaster.of(image, useAlpha);
+        long samples = raster != null ? raster.samples() : (long) image.getWidth() * image.getHeight() * 3;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, (samples - LENGTH_BITS) / 8));
+    }
+
+    /**
+     * Returns the largest message (in bytes) that fits with the given
+     * options. Adaptive layouts depend on the image content, so this scans it.
+     * @param image Carrier image
+     * @param options Layout options
+     * @return Capacity in bytes, excluding the length prefix or header
+     */
+    public static long capacity(BufferedImage image, StegoOptions options) {
+        CarrierRaster raster = CarrierRaster.of(image, options.useAlpha());
+        if (raster == null) {
+            raster = CarrierRaster.of(toBgr(image), false);
+        }
+        StegoHeader header = options.header(raster.samplesPerPixel(), new byte[0]);
+        if (header == null) {
+            return Math.max(0, (raster.samples() - LENGTH_BITS) / 8);
+        }
+        return MultiBitLsb.capacity(raster, header);
+    }
+
+    /**
+     * Embeds the message into the colour channels of the image.
+     * @param image Carrier image
+     * @param message The message bytes to embed
+     * @return The stego image
+     * @throws IllegalArgumentException if the message does not fit
+     * @see #embed(BufferedImage, byte[], boolean)
+     */
+    public static BufferedImage embed(BufferedImage image, byte[] message) {
+        return embed(image, message, false);
+    }
+
+    /**
+     * Embeds the message into the image. Images whose raster can carry LSBs
+     * directly are modified in place and keep their type; indexed and other
+     * unsupported layouts are first converted to a TYPE_3BYTE_BGR copy.
+     * @param image Carrier image
+     * @param message The message bytes to embed
+     * @param useAlpha Whether the alpha plane, if any, carries payload bits too
+     * @return The stego image
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static BufferedImage embed(BufferedImage image, byte[] message, boolean useAlpha) {
+        return embed(image, message, StegoOptions.defaults().useAlpha(useAlpha));
+    }
+
+    /**
+     * Embeds the message into the image with the given options.
+     * @param image Carrier image
+     * @param message The message bytes to embed
+     * @param options Layout and parallelism options
+     * @return The stego image
+     * @throws IllegalArgumentException if the message does not fit
+     * @see #embed(BufferedImage, byte[], boolean)
+     */
+    public static BufferedImage embed(BufferedImage image, byte[] message, StegoOptions options) {
+        CarrierRaster raster = CarrierRaster.of(image, options.useAlpha());
+        if (raster == null) {
+            BufferedImage converted = toBgr(image);
+            try {
+                embed(CarrierRaster.of(converted, false), message, options);
+            } catch (RuntimeException e) {
+                // The caller never sees the copy, so it goes back to the pool here
+                if (converted != image) {
+                    BufferPool.release(converted);
+                }
+                throw e;
+            }
+            return converted;
+        }
+        embed(raster, message, options);
+        return image;
+    }
+
+    /**
+     * Embeds the message into a carrier raster.
+     * @param carrier Carrier samples, modified in place
+     * @param message The message bytes to embed
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static void embed(CarrierRaster carrier, byte[] message) {
+        embed(carrier, message, StegoOptions.defaults());
+    }
+
+    /**
+     * Embeds the message into a carrier raster, striping the work across
+     * the options' pool when one is set, scattering it when the options
+     * carry a scatter key. A {@link StegoHeader} replaces the length prefix
+     * when the options ask for one or set more than one bit per sample.
+     * @param carrier Carrier samples, modified in place
+     * @param message The message bytes to embed
+     * @param options Parallelism options
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static void embed(CarrierRaster carrier, byte[] message, StegoOptions options) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.EMBED)) {
+            embedRaster(carrier, message, options);
+            span.done(message.length);
+        }
+    }
+
+    private static void embedRaster(CarrierRaster carrier, byte[] message, StegoOptions options) {
+        StegoHeader header = options.header(carrier.samplesPerPixel(), message);
+        if (header != null) {
+            if (options.scatterKey() != null) {
+                throw new IllegalArgumentException("Scattering works with the legacy layout only");
+            }
+            if (!header.isSingleBit()) {
+                MultiBitLsb.embed(carrier, message, header);
+                return;
+            }
+            int start = header.payloadSample();
+            if (start + (long) message.length * 8 > carrier.samples()) {
+                throw new IllegalArgumentException("Message too large to fit in this image.");
+            }
+            byte[] bytes = header.toBytes();
+            carrier.pack(bytes, 0, bytes.length, 0);
+            ParallelLsb.pack(carrier, message, 0, message.length, start, options.pool(), options.parallelThreshold());
+            return;
+        }
+        if (LENGTH_BITS + (long) message.length * 8 > carrier.samples()) {
+            throw new IllegalArgumentException("Message too large to fit in this image.");
+        }
+        if (options.scatterKey() != null) {
+            SamplePermutation perm = new SamplePermutation(options.scatterKey(), carrier.samples());
+            ScatterLsb.packInt(carrier, perm, message.length, 0);
+            ScatterLsb.pack(carrier, perm, message, 0, message.length, LENGTH_BITS);
+            return;
+        }
+        carrier.packInt(message.length, 0);
+        ParallelLsb.pack(carrier, message, 0, message.length, LENGTH_BITS, options.pool(), options.parallelThreshold());
+    }
+
+    /**
+     * Embeds the message into a raw carrier raster, one bit per byte.
+     * @param carrier Raster bytes, modified in place
+     * @param message The message bytes to embed
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static void embed(byte[] carrier, byte[] message) {
+        if (LENGTH_BITS + (long) message.length * 8 > carrier.length) {
+            throw new IllegalArgumentException("Message too large to fit in this image.");
+        }
+
+        // Length prefix first, then the message itself
+        BitPlane.packInt(message.length, carrier, 0);
+        BitPlane.pack(message, 0, message.length, carrier, LENGTH_BITS);
+    }
+
+    /**
+     * Reads the carrier file, embeds the message and writes a PNG stego image
+     * of the same image type where possible.
+     * @param carrier Carrier image file
+     * @param message The message bytes to embed
+     * @param output Destination file, always written as PNG
+     * @throws IOException if the carrier cannot be decoded or the output written
+     */
+    public static void embed(Path carrier, byte[] message, Path output) throws IOException {
+        embed(carrier, message, output, PngEncoder.defaults());
+    }
+
+    /**
+     * Reads the carrier file, embeds the message and writes the stego image
+     * with the given PNG encoder settings.
+     * @param carrier Carrier image file
+     * @param message The message bytes to embed
+     * @param output Destination file, always written as PNG
+     * @param encoder Compression level, strategy and parallelism for the output
+     * @throws IOException if the carrier cannot be decoded or the output written
+     */
+    public static void embed(Path carrier, byte[] message, Path output, PngEncoder encoder) throws IOException {
+        BufferedImage image;
+        try (InputStream in = Files.newInputStream(carrier)) {
+            image = read(in);
+        }
+        write(image, message, StegoOptions.defaults(), encoder, output);
+    }
+
+    /**
+     * Reads the carrier file, embeds the message with the given options and
+     * writes the stego image.
+     * @param carrier Carrier image file
+     * @param message The message bytes to embed
+     * @param output Destination file, always written as PNG
+     * @param encoder Compression level, strategy and parallelism for the output
+     * @param options Embedding options
+     * @throws IOException if the carrier cannot be decoded or the output written
+     */
+    public static void embed(Path carrier, byte[] message, Path output, PngEncoder encoder, StegoOptions options)
+            throws IOException {
+        BufferedImage image;
+        try (InputStream in = Files.newInputStream(carrier)) {
+            image = read(in);
+        }
+        write(image, message, options, encoder, output);
+    }
+
+    /**
+     * Decodes the carrier stream, embeds the message and encodes a PNG stego
+     * image to the output stream. Neither stream is closed.
+     * @param carrier Encoded carrier image
+     * @param message The message bytes to embed
+     * @param output Destination for the PNG stego image
+     * @throws IOException if the carrier cannot be decoded or the output written
+     */
+    public static void embed(InputStream carrier, byte[] message, OutputStream output) throws IOException {
+        BufferedImage image = read(carrier);
+        BufferedImage stego = image;
+        try {
+            stego = embed(image, message);
+            PngEncoder.defaults().write(stego, output);
+        } finally {
+            release(image, stego);
+        }
+    }
+
+    // Embed and encode to a file, then hand the decoded and stego images back to the pool
+    private static void write(BufferedImage image, byte[] message, StegoOptions options, PngEncoder encoder,
+                              Path output) throws IOException {
+        BufferedImage stego = image;
+        try {
+            stego = embed(image, message, options);
+            encoder.write(stego, output);
+        } finally {
+            release(image, stego);
+        }
+    }
+
+    /**
+     * Returns a decoded carrier and the stego image made from it, which may
+     * be a converted copy, to {@link BufferPool}.
+     * @param image Decoded carrier
+     * @param stego Result of embedding into it
+     */
+    static void release(BufferedImage image, BufferedImage stego) {
+        BufferPool.release(stego);
+        if (image != stego) {
+            BufferPool.release(image);
+        }
+    }
+
+    // Decode into a pooled image of the type ImageIO.read would have produced
+    static BufferedImage read(InputStream in) throws IOException {
+        return read(in, Long.MAX_VALUE);
+    }
+
+    // As read(in), but checks the size in the header before any pixel memory is allocated
+    static BufferedImage read(InputStream in, long maxPixels) throws IOException {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.DECODE);
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported or unreadable image format");
+            }
+            ImageReader reader = readers.next();
+            BufferedImage image;
+            try {
+                reader.setInput(iis, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    throw new TooLargeException(pixels, maxPixels);
+                }
+                image = reader.read(0, BufferPool.readParam(reader));
+            } finally {
+                reader.dispose();
+            }
+            span.done(StegoMetrics.pixelBytes(image));
+            return image;
+        }
+    }
+
+    // Raised by read(in, maxPixels) so callers can tell an oversized image from an unreadable one
+    static final class TooLargeException extends IOException {
+        TooLargeException(long pixels, long maxPixels) {
+            super("Image has " + pixels + " pixels, more than " + maxPixels);
+        }
+    }
+
+    // Convert image to 3BYTE_BGR for layouts CarrierRaster cannot handle
+    static BufferedImage toBgr(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.CONVERT)) {
+            BufferedImage convertedImg = BufferPool.image(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = convertedImg.createGraphics();
+            if (image.getColorModel().hasAlpha()) {
+                // Translucent pixels blend with what is underneath, which must be black as in a new image
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            }
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            span.done(StegoMetrics.pixelBytes(convertedImg));
+            return convertedImg;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Headless counterpart of {@link LsbEmbedder}: recovers a message embedded
+ * in the least significant bits of a carrier behind either a 32-bit length
+ * prefix or a {@link StegoHeader}, whose checksum must match.
+ */
+public class LsbExtractor {
+
+    // Returned by the lazy readers for layouts that need the whole image decoded
+    private static final byte[] FULL_DECODE = new byte[0];
+
+    /**
+     * Extracts the hidden message from a raw carrier raster.
+     * @param carrier Raster bytes
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(byte[] carrier) {
+        int messageLength = messageLength(carrier);
+        if (messageLength < 0) {
+            return null;
+        }
+        byte[] message = new byte[messageLength];
+        BitPlane.unpack(carrier, LsbEmbedder.LENGTH_BITS, message, 0, messageLength);
+        return message;
+    }
+
+    /**
+     * Extracts the hidden message from a raw carrier raster into a caller
+     * supplied buffer, so repeated extractions need not allocate.
+     * @param carrier Raster bytes
+     * @param dst Destination buffer, at least {@link #messageLength} bytes from dstOff
+     * @param dstOff First destination byte
+     * @return The message length, or -1 if no message found
+     * @throws IllegalArgumentException if the destination is too small
+     */
+    public static int extract(byte[] carrier, byte[] dst, int dstOff) {
+        int messageLength = messageLength(carrier);
+        if (messageLength < 0) {
+            return -1;
+        }
+        if (dst.length - dstOff < messageLength) {
+            throw new IllegalArgumentException("Destination buffer too small for " + messageLength + " bytes");
+        }
+        BitPlane.unpack(carrier, LsbEmbedder.LENGTH_BITS, dst, dstOff, messageLength);
+        return messageLength;
+    }
+
+    /**
+     * Reads the length prefix of a raw carrier raster.
+     * @param carrier Raster bytes
+     * @return The message length, or -1 if it is not plausible for this carrier
+     */
+    public static int messageLength(byte[] carrier) {
+        if (carrier.length < LsbEmbedder.LENGTH_BITS) {
+            return -1;
+        }
+
+        // Extract first 32 bits = message length
+        int messageLength = BitPlane.unpackInt(carrier, 0);
+
+        if (messageLength <= 0 || messageLength > (carrier.length - LsbEmbedder.LENGTH_BITS) / 8) {
+            // Probably no hidden message or corrupted
+            return -1;
+        }
+        return messageLength;
+    }
+
+    /**
+     * Extracts the hidden message from the colour channels of a decoded image.
+     * @param image Stego image
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(BufferedImage image) {
+        return extract(image, false);
+    }
+
+    /**
+     * Extracts the hidden message from a decoded image.
+     * @param image Stego image
+     * @param useAlpha Whether the alpha plane was used as capacity when embedding
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(BufferedImage image, boolean useAlpha) {
+        return extract(image, StegoOptions.defaults().useAlpha(useAlpha));
+    }
+
+    /**
+     * Extracts the hidden message from a decoded image with the given options.
+     * @param image Stego image
+     * @param options Layout and parallelism options used when embedding
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(BufferedImage image, StegoOptions options) {
+        CarrierRaster raster = CarrierRaster.of(image, options.useAlpha());
+        if (raster != null) {
+            return extract(raster, options);
+        }
+        BufferedImage bgr = LsbEmbedder.toBgr(image);
+        try {
+            return extract(CarrierRaster.of(bgr, false), options);
+        } finally {
+            BufferPool.release(bgr);
+        }
+    }
+
+    /**
+     * Extracts the hidden message from a carrier raster.
+     * @param carrier Carrier samples
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(CarrierRaster carrier) {
+        return extract(carrier, StegoOptions.defaults());
+    }
+
+    /**
+     * Extracts the hidden message from a carrier raster, striping the work
+     * across the options' pool when one is set. Carriers that start with a
+     * {@link StegoHeader} are read with the layout it records.
+     * @param carrier Carrier samples
+     * @param options Parallelism options
+     * @return The extracted message bytes, or null if no message found
+     */
+    public static byte[] extract(CarrierRaster carrier, StegoOptions options) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.EXTRACT)) {
+            byte[] message = extractRaster(carrier, options);
+            span.done(message != null ? message.length : 0);
+            return message;
+        }
+    }
+
+    private static byte[] extractRaster(CarrierRaster carrier, StegoOptions options) {
+        if (options.scatterKey() != null) {
+            return extractScattered(carrier, new SamplePermutation(options.scatterKey(), carrier.samples()));
+        }
+        if (carrier.samples() >= LsbEmbedder.LENGTH_BITS && StegoHeader.hasMagic(carrier.unpackInt(0))) {
+            return extract(carrier, readHeader(carrier), options);
+        }
+        int messageLength = messageLength(carrier);
+        if (messageLength < 0) {
+            return null;
+        }
+        byte[] message = new byte[messageLength];
+        ParallelLsb.unpack(carrier, LsbEmbedder.LENGTH_BITS, message, 0, messageLength,
+                options.pool(), options.parallelThreshold());
+        return message;
+    }
+
+    // Read the payload a header describes and check it against the header's checksum
+    private static byte[] extract(CarrierRaster carrier, StegoHeader header, StegoOptions options) {
+        if (header == null) {
+            return null;
+        }
+        byte[] message;
+        if (header.isSingleBit()) {
+            if (header.length > (carrier.samples() - header.payloadSample()) / 8) {
+                return null;
+            }
+            message = new byte[header.length];
+            ParallelLsb.unpack(carrier, header.payloadSample(), message, 0, message.length,
+                    options.pool(), options.parallelThreshold());
+        } else {
+            message = MultiBitLsb.extract(carrier, header);
+        }
+        return message != null && header.matches(message) ? message : null;
+    }
+
+    /**
+     * @param carrier Carrier samples
+     * @return The header, or null if the carrier does not start with a valid one
+     */
+    public static StegoHeader readHeader(CarrierRaster carrier) {
+        if (carrier.samples() < LsbEmbedder.LENGTH_BITS || !StegoHeader.hasMagic(carrier.unpackInt(0))) {
+            return null;
+        }
+        byte[] prefix = new byte[StegoHeader.PREFIX_BYTES];
+        carrier.unpack(0, prefix, 0, prefix.length);
+        int size = StegoHeader.size(prefix);
+        if (size <= 0 || carrier.samples() < size * 8) {
+            return null;
+        }
+        byte[] bytes = new byte[size];
+        carrier.unpack(0, bytes, 0, size);
+        return StegoHeader.parse(bytes, carrier.samplesPerPixel());
+    }
+
+    // Read the length prefix and message through the permutation
+    private static byte[] extractScattered(CarrierRaster carrier, SamplePermutation perm) {
+        if (carrier.samples() < LsbEmbedder.LENGTH_BITS) {
+            return null;
+        }
+        int messageLength = ScatterLsb.unpackInt(carrier, perm, 0);
+        if (messageLength <= 0 || messageLength > (carrier.samples() - LsbEmbedder.LENGTH_BITS) / 8) {
+            return null;
+        }
+        byte[] message = new byte[messageLength];
+        ScatterLsb.unpack(carrier, perm, LsbEmbedder.LENGTH_BITS, message, 0, messageLength);
+        return message;
+    }
+
+    /**
+     * Reads the length prefix of a carrier raster.
+     * @param carrier Carrier samples
+     * @return The message length, or -1 if it is not plausible for this carrier
+     */
+    public static int messageLength(CarrierRaster carrier) {
+        if (carrier.samples() < LsbEmbedder.LENGTH_BITS) {
+            return -1;
+        }
+        int messageLength = carrier.unpackInt(0);
+        if (messageLength <= 0 || messageLength > (carrier.samples() - LsbEmbedder.LENGTH_BITS) / 8) {
+            return -1;
+        }
+        return messageLength;
+    }
+
+    /**
+     * Decodes the stego image file and extracts the hidden message with the
+     * given options. Scattered messages need the whole image, so this is the
+     * file-level entry point for them.
+     * @param stego Stego image file
+     * @param options Layout options used when embedding
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static byte[] extract(Path stego, StegoOptions options) throws IOException {
+        BufferedImage image;
+        try (InputStream in = Files.newInputStream(stego)) {
+            image = LsbEmbedder.read(in);
+        }
+        try {
+            return extract(image, options);
+        } finally {
+            BufferPool.release(image);
+        }
+    }
+
+    /**
+     * Decodes the stego image file and extracts the hidden message.
+     * @param stego Stego image file
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static byte[] extract(Path stego) throws IOException {
+        try (InputStream in = Files.newInputStream(stego)) {
+            return extract(in);
+        }
+    }
+
+    /**
+     * Decodes the stego image stream and extracts the hidden message. The
+     * stream is not closed.
+     * @param stego Encoded stego image
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the stream cannot be decoded
+     */
+    public static byte[] extract(InputStream stego) throws IOException {
+        BufferedImage image = LsbEmbedder.read(stego);
+        try {
+            return extract(image);
+        } finally {
+            BufferPool.release(image);
+        }
+    }
+
+    /**
+     * Extracts the hidden message while decoding only the rows that hold it:
+     * first the rows covering the length prefix, then just enough rows for
+     * the message. Heap use and latency follow the payload size rather than
+     * the image size. 8-bit PNGs are decoded scanline by scanline and the
+     * stream is abandoned as soon as the message is complete, 24-bit BMPs are
+     * memory-mapped and other formats go through {@link ImageReader} source
+     * regions. A {@link StegoHeader} is recognised from the first rows;
+     * layouts with more than one bit per sample fall back to a full decode.
+     * @param stego Stego image file
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static byte[] extractLazy(Path stego) throws IOException {
+        return extractLazy(stego, false);
+    }
+
+    /**
+     * Extracts the hidden message while decoding only the rows that hold it.
+     * @param stego Stego image file
+     * @param useAlpha Whether the alpha plane was used as capacity when embedding
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file cannot be read or decoded
+     * @see #extractLazy(Path)
+     */
+    public static byte[] extractLazy(Path stego, boolean useAlpha) throws IOException {
+        return extractLazy(stego, useAlpha, ProgressListener.NONE);
+    }
+
+    /**
+     * Extracts the hidden message while decoding only the rows that hold it,
+     * reporting decoded rows against the rows the message needs. Stops with
+     * an {@link InterruptedIOException} if the calling thread is interrupted.
+     * @param stego Stego image file
+     * @param useAlpha Whether the alpha plane was used as capacity when embedding
+     * @param progress Receives rows decoded and rows needed
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file cannot be read or decoded
+     * @see #extractLazy(Path)
+     */
+    public static byte[] extractLazy(Path stego, boolean useAlpha, ProgressListener progress) throws IOException {
+        byte[] message;
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.EXTRACT)) {
+            message = lazy(stego, useAlpha, progress);
+            span.done(message != null ? message.length : 0);
+        }
+        if (message == FULL_DECODE) {
+            checkInterrupted();
+            message = extract(stego, StegoOptions.defaults().useAlpha(useAlpha));
+        }
+        progress.progress(1, 1);
+        return message;
+    }
+
+    // Pick the cheapest reader for the file; FULL_DECODE if the layout needs the whole image
+    private static byte[] lazy(Path stego, boolean useAlpha, ProgressListener progress) throws IOException {
+        byte[] message = null;
+        boolean done = false;
+        if (PngRowReader.isPng(stego)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(stego));
+                 PngRowReader png = new PngRowReader(in)) {
+                if (png.isSupported()) {
+                    message = extractRows(png, useAlpha, progress);
+                    done = true;
+                }
+            }
+        } else if (!useAlpha && MappedBmp.isSupported(stego)) {
+            // A BMP without a message is not decoded again; multi-bit layouts get the full decode
+            message = MappedBmp.extract(stego, FULL_DECODE);
+            done = true;
+        }
+        if (!done) {
+            message = extractRegion(stego, useAlpha, progress);
+        }
+        return message;
+    }
+
+    /**
+     * Reads just the {@link StegoHeader} of a stego image file, decoding only
+     * the first rows. Cheap enough to screen large sets of files.
+     * @param stego Image file
+     * @param useAlpha Whether the alpha plane was used as capacity when embedding
+     * @return The header, or null if the file does not start with a valid one
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static StegoHeader readHeader(Path stego, boolean useAlpha) throws IOException {
+        if (PngRowReader.isPng(stego)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(stego));
+                 PngRowReader png = new PngRowReader(in)) {
+                if (png.isSupported()) {
+                    int width = png.getWidth();
+                    PixelLayout layout = PixelLayout.forPng(png.getColorType(), useAlpha);
+                    byte[] row = new byte[width * png.getChannels()];
+                    byte[] samples = layout.isIdentity() ? row : new byte[width * layout.samplesPerPixel()];
+                    byte[] prefix = new byte[StegoHeader.BYTES];
+                    LsbBitReader bits = new LsbBitReader();
+                    bits.reset(prefix, 0, prefix.length);
+                    for (int y = 0; y < png.getHeight() && !bits.isFull(); y++) {
+                        png.readRow(row);
+                        layout.gather(row, width, samples);
+                        bits.read(samples, 0, samples.length);
+                    }
+                    return StegoHeader.parse(Arrays.copyOf(prefix, bits.position()), layout.samplesPerPixel());
+                }
+            }
+        }
+        try (ImageInputStream iis = ImageIO.createImageInputStream(stego.toFile())) {
+            ImageReader reader = reader(iis);
+            try {
+                reader.setInput(iis, false, true);
+                try (Rows reading = new Rows(reader, useAlpha)) {
+                    CarrierRaster rows = reading.read(1);
+                    int needed = Math.min(reader.getHeight(0), rowsFor(StegoHeader.SAMPLES, rows.samples()));
+                    if (needed > 1) {
+                        rows = reading.read(needed);
+                    }
+                    return readHeader(rows);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Stream rows through the bit reader until the message is complete
+    private static byte[] extractRows(PngRowReader png, boolean useAlpha, ProgressListener progress)
+            throws IOException {
+        int width = png.getWidth();
+        int height = png.getHeight();
+        PixelLayout layout = PixelLayout.forPng(png.getColorType(), useAlpha);
+        byte[] row = new byte[width * png.getChannels()];
+        byte[] samples = layout.isIdentity() ? row : new byte[width * layout.samplesPerPixel()];
+        long totalSamples = (long) width * height * layout.samplesPerPixel();
+
+        byte[] prefix = new byte[StegoHeader.BYTES];
+        byte[] message = null;
+        StegoHeader header = null;
+        LsbBitReader bits = new LsbBitReader();
+        bits.reset(prefix, 0, StegoHeader.PREFIX_BYTES);
+        long neededRows = height;
+        for (int y = 0; y < height; y++) {
+            checkInterrupted();
+            png.readRow(row);
+            layout.gather(row, width, samples);
+            int used = bits.read(samples, 0, samples.length);
+            while (message == null && bits.isFull()) {
+                int size = StegoHeader.size(prefix);
+                if (size < 0) {
+                    return null;
+                }
+                if (size > 0 && bits.position() < size) {
+                    // Magic seen: collect the rest of the header
+                    bits.reset(prefix, bits.position(), size - bits.position());
+                    used += bits.read(samples, used, samples.length - used);
+                    continue;
+                }
+                int start = LsbEmbedder.LENGTH_BITS;
+                int messageLength = PngChunks.readInt(prefix, 0);
+                if (size > 0) {
+                    header = StegoHeader.parse(prefix, layout.samplesPerPixel());
+                    if (header == null) {
+                        return null;
+                    }
+                    if (!header.isSingleBit()) {
+                        return FULL_DECODE;
+                    }
+                    start = header.payloadSample();
+                    messageLength = header.length;
+                }
+                if (messageLength <= 0 || messageLength > (totalSamples - start) / 8) {
+                    return null;
+                }
+                message = new byte[messageLength];
+                bits.reset(message, 0, messageLength);
+                used += bits.read(samples, used, samples.length - used);
+                neededRows = rowsFor(start + (long) messageLength * 8, samples.length);
+            }
+            progress.progress(y + 1, neededRows);
+            if (message != null && bits.isFull()) {
+                return header == null || header.matches(message) ? message : null;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] extractRegion(Path stego, boolean useAlpha, ProgressListener progress)
+            throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(stego.toFile())) {
+            ImageReader reader = reader(iis);
+            try {
+                reader.setInput(iis, false, true);
+                int height = reader.getHeight(0);
+
+                try (Rows reading = new Rows(reader, useAlpha)) {
+                    // One row tells us how many samples each pixel contributes
+                    CarrierRaster rows = reading.read(1);
+                    long samplesPerRow = rows.samples();
+                    long totalSamples = samplesPerRow * height;
+                    int headerRows = rowsFor(LsbEmbedder.LENGTH_BITS, samplesPerRow);
+                    if (headerRows > height) {
+                        return null;
+                    }
+                    if (headerRows > 1) {
+                        rows = reading.read(headerRows);
+                    }
+
+                    int start = LsbEmbedder.LENGTH_BITS;
+                    int messageLength = rows.unpackInt(0);
+                    StegoHeader header = null;
+                    if (StegoHeader.hasMagic(messageLength)) {
+                        int needed = Math.min(height, rowsFor(StegoHeader.SAMPLES, samplesPerRow));
+                        if (needed > headerRows) {
+                            headerRows = needed;
+                            rows = reading.read(headerRows);
+                        }
+                        header = readHeader(rows);
+                        if (header == null) {
+                            return null;
+                        }
+                        if (!header.isSingleBit()) {
+                            return FULL_DECODE;
+                        }
+                        start = header.payloadSample();
+                        messageLength = header.length;
+                    }
+                    progress.progress(headerRows, height);
+                    if (messageLength <= 0 || messageLength > (totalSamples - start) / 8) {
+                        return null;
+                    }
+
+                    int needed = rowsFor(start + (long) messageLength * 8, samplesPerRow);
+                    if (needed > headerRows) {
+                        checkInterrupted();
+                        rows = reading.read(needed);
+                    }
+                    progress.progress(needed, needed);
+                    byte[] message = new byte[messageLength];
+                    rows.unpack(start, message, 0, messageLength);
+                    return header == null || header.matches(message) ? message : null;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream iis) throws IOException {
+        Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("Unsupported or unreadable image format");
+        }
+        return readers.next();
+    }
+
+    // Decodes only the top rows of the image; the next read and close hand the pixels back to the pool
+    private static final class Rows implements AutoCloseable {
+        private final ImageReader reader;
+        private final boolean useAlpha;
+        private BufferedImage image;
+
+        Rows(ImageReader reader, boolean useAlpha) {
+            this.reader = reader;
+            this.useAlpha = useAlpha;
+        }
+
+        CarrierRaster read(int rows) throws IOException {
+            close();
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, 0, reader.getWidth(0), rows));
+            BufferedImage region = reader.read(0, param);
+            CarrierRaster raster = CarrierRaster.of(region, useAlpha);
+            if (raster != null) {
+                image = region;
+                return raster;
+            }
+            image = LsbEmbedder.toBgr(region);
+            BufferPool.release(region);
+            return CarrierRaster.of(image, false);
+        }
+
+        @Override
+        public void close() {
+            BufferPool.release(image);
+            image = null;
+        }
+    }
+
+    static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    private static int rowsFor(long samples, long samplesPerRow) {
+        return (int) Math.min(Integer.MAX_VALUE, (samples + samplesPerRow - 1) / samplesPerRow);
+    }
+}
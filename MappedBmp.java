@@ -0,0 +1,193 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Zero-decode fast path for uncompressed 24-bit BMP carriers. The pixel
+ * array is memory-mapped in windows of whole rows and payload bits are
+ * flipped in place in the mapping, honouring row padding and bottom-up
+ * row order, so nothing is decoded or re-encoded and only the rows that
+ * carry payload are touched.
+ *
+ * The sample order matches {@link LsbEmbedder}, so a BMP written here can
+ * also be read by the other extractors and vice versa.
+ */
+public class MappedBmp {
+
+    // Upper bound on a single mapping
+    private static final long WINDOW = 64L << 20;
+
+    /**
+     * Checks whether a file can use the mapped fast path.
+     * @param file File to check
+     * @return Whether it is an uncompressed 24-bit BMP
+     */
+    public static boolean isSupported(Path file) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            BmpHeader.read(ch);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the carrier to the output and embeds the message in the copy.
+     * The capacity is checked before anything is written.
+     * @param carrier Carrier BMP
+     * @param message The message bytes to embed
+     * @param output Destination BMP file
+     * @throws IOException if the carrier is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static void embed(Path carrier, byte[] message, Path output) throws IOException {
+        embed(carrier, message, output, StegoOptions.defaults());
+    }
+
+    /**
+     * Copies the carrier to the output and embeds the message in the copy,
+     * with a {@link StegoHeader} when the options ask for one. The capacity
+     * is checked before anything is written.
+     * @param carrier Carrier BMP
+     * @param message The message bytes to embed
+     * @param output Destination BMP file
+     * @param options Layout options; one bit per sample, no scattering
+     * @throws IOException if the carrier is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the message does not fit or the layout is unsupported
+     */
+    public static void embed(Path carrier, byte[] message, Path output, StegoOptions options) throws IOException {
+        if (options.scatterKey() != null) {
+            throw new IllegalArgumentException("Mapped BMP embedding does not scatter");
+        }
+        StegoHeader header = options.header(3, message);
+        if (header != null && !header.isSingleBit()) {
+            throw new IllegalArgumentException("Mapped BMP embedding writes one bit per sample");
+        }
+        byte[] prefix = header != null ? header.toBytes() : null;
+        try (FileChannel ch = FileChannel.open(carrier, StandardOpenOption.READ)) {
+            long samples = BmpHeader.read(ch).samples();
+            if (prefix == null) {
+                StreamingEmbedder.checkCapacity(samples, message.length);
+            } else if (message.length == 0 || header.payloadSample() + (long) message.length * 8 > samples) {
+                throw new IllegalArgumentException("Message too large to fit in this image.");
+            }
+        }
+        Files.copy(carrier, output, StandardCopyOption.REPLACE_EXISTING);
+        if (prefix == null) {
+            embed(output, message);
+            return;
+        }
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.EMBED);
+             FileChannel ch = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BmpHeader bmp = BmpHeader.read(ch);
+            StreamingEmbedder.PayloadFeed feed = new StreamingEmbedder.PayloadFeed(
+                    new ByteArrayInputStream(message), message.length, prefix);
+            forEachRow(ch, bmp, MapMode.READ_WRITE, (map, index, length) -> feed.embed(map, index, length));
+            span.done(message.length);
+        }
+    }
+
+    /**
+     * Embeds the message into the BMP file in place.
+     * @param bmp BMP file, modified in place
+     * @param message The message bytes to embed
+     * @throws IOException if the file is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the message does not fit
+     */
+    public static void embed(Path bmp, byte[] message) throws IOException {
+        embed(bmp, new ByteArrayInputStream(message), message.length);
+    }
+
+    /**
+     * Embeds a streamed payload into the BMP file in place.
+     * @param bmp BMP file, modified in place
+     * @param payload Payload source, read but not closed
+     * @param payloadLength Exact number of bytes the payload stream will supply
+     * @throws IOException if the file is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the payload does not fit
+     */
+    public static void embed(Path bmp, InputStream payload, long payloadLength) throws IOException {
+        try (FileChannel ch = FileChannel.open(bmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BmpHeader header = BmpHeader.read(ch);
+            StreamingEmbedder.checkCapacity(header.samples(), payloadLength);
+            StreamingEmbedder.PayloadFeed feed = new StreamingEmbedder.PayloadFeed(payload, payloadLength);
+            forEachRow(ch, header, MapMode.READ_WRITE, (map, index, length) -> feed.embed(map, index, length));
+        }
+    }
+
+    /**
+     * Extracts the hidden message from a BMP file.
+     * @param bmp Stego BMP file
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException if the file is unsupported or an I/O error occurs
+     */
+    public static byte[] extract(Path bmp) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return extract(bmp, out) < 0 ? null : out.toByteArray();
+    }
+
+    /**
+     * Streams the hidden payload of a BMP file to the output, mapping only
+     * the rows that carry it.
+     * @param bmp Stego BMP file
+     * @param out Receives the payload; not closed
+     * @return The payload length, or -1 if no message found
+     * @throws IOException if the file is unsupported or an I/O error occurs
+     */
+    public static long extract(Path bmp, OutputStream out) throws IOException {
+        return drain(bmp, out).result();
+    }
+
+    // For LsbExtractor: the message, null if there is none, or 'unfollowable' if only a full decode can read it
+    static byte[] extract(Path bmp, byte[] unfollowable) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingExtractor.PayloadDrain drain = drain(bmp, out);
+        if (drain.result() >= 0) {
+            return out.toByteArray();
+        }
+        return drain.needsFullDecode() ? unfollowable : null;
+    }
+
+    private static StreamingExtractor.PayloadDrain drain(Path bmp, OutputStream out) throws IOException {
+        try (FileChannel ch = FileChannel.open(bmp, StandardOpenOption.READ)) {
+            BmpHeader header = BmpHeader.read(ch);
+            StreamingExtractor.PayloadDrain drain = new StreamingExtractor.PayloadDrain(out, header.samples(), 3);
+            byte[] row = new byte[header.width * 3];
+            forEachRow(ch, header, MapMode.READ_ONLY, (map, index, length) -> {
+                map.get(index, row);
+                return drain.extract(row, length);
+            });
+            return drain;
+        }
+    }
+
+    private interface RowVisitor {
+        // Process the row of samples at map[index, index + length); true to stop
+        boolean visit(ByteBuffer map, int index, int length) throws IOException;
+    }
+
+    // Visit rows top-down through mapped windows; in READ_WRITE mode visitors modify the mapping directly
+    private static void forEachRow(FileChannel ch, BmpHeader bmp, MapMode mode, RowVisitor visitor) throws IOException {
+        int rowsPerWindow = (int) Math.max(1, Math.min(bmp.height, WINDOW / bmp.rowStride));
+        for (int y0 = 0; y0 < bmp.height; y0 += rowsPerWindow) {
+            int rows = Math.min(rowsPerWindow, bmp.height - y0);
+            long start = Math.min(bmp.rowPosition(y0), bmp.rowPosition(y0 + rows - 1));
+            MappedByteBuffer map = ch.map(mode, start, (long) rows * bmp.rowStride);
+            for (int i = 0; i < rows; i++) {
+                if (visitor.visit(map, (int) (bmp.rowPosition(y0 + i) - start), bmp.width * 3)) {
+                    return;
+                }
+            }
+        }
+    }
+}
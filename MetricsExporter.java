@@ -0,0 +1,34 @@
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Receives {@link StegoMetrics} snapshots, either on demand through
+ * {@link StegoMetrics#export} or periodically through
+ * {@link StegoMetrics#schedule}. Implementations forward them to whatever
+ * monitoring system is in use. Snapshots are cumulative since the last
+ * {@link StegoMetrics#reset()}.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    /**
+     * @param phases One snapshot per phase that has recorded anything
+     */
+    void export(List<StegoMetrics.PhaseSnapshot> phases);
+
+    /**
+     * @param out Where to print
+     * @return An exporter printing one line per phase with counts, bytes and latency percentiles
+     */
+    static MetricsExporter text(PrintStream out) {
+        return phases -> {
+            for (StegoMetrics.PhaseSnapshot p : phases) {
+                out.println(String.format(Locale.ROOT,
+                        "%-10s count=%d errors=%d bytes=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                        p.phase.name().toLowerCase(Locale.ROOT), p.count, p.errors, p.bytes,
+                        p.meanNanos() / 1e6, p.p50Nanos / 1e6, p.p99Nanos / 1e6, p.maxNanos / 1e6));
+            }
+        };
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Embedding with more than one LSB per sample. In fixed mode every sample
+ * slot of a pixel carries its configured number of bits (0 to 4, so a
+ * channel can be left untouched). In adaptive mode the same numbers are
+ * caps, and each 4x4 block of pixels gets 1 to 4 bits per sample depending
+ * on how textured it is, measured by the variance of the sample bits above
+ * the highest embedded bit; embedding never changes those bits, so the
+ * extractor sees the same map.
+ *
+ * A {@link StegoHeader} is written one bit per sample at the start of the
+ * carrier and the payload follows, MSB first.
+ * Block textures are computed a block row at a time as the payload reaches
+ * it, so work follows the payload size unless the capacity check needs a
+ * full scan.
+ */
+public class MultiBitLsb {
+
+    /** Width and height of an adaptive block in pixels. */
+    public static final int BLOCK = 4;
+
+    /**
+     * Writes the header and payload.
+     * @param carrier Carrier samples, modified in place
+     * @param message Payload bytes
+     * @param header Layout to use, built for this payload
+     * @throws IllegalArgumentException if the payload does not fit
+     */
+    public static void embed(CarrierRaster carrier, byte[] message, StegoHeader header) {
+        if (header.channelBits.length != carrier.samplesPerPixel()) {
+            throw new IllegalArgumentException("Need bits for each of the " + carrier.samplesPerPixel()
+                    + " samples per pixel, got " + header.channelBits.length);
+        }
+        SampleBits plan = new SampleBits(carrier, header);
+        long needed = (long) message.length * 8;
+        if (carrier.samples() < header.payloadSample()
+                || needed > plan.guaranteedBits() && needed > plan.capacityBits()) {
+            throw new IllegalArgumentException("Message too large to fit in this image.");
+        }
+        byte[] bytes = header.toBytes();
+        carrier.pack(bytes, 0, bytes.length, 0);
+
+        long bit = 0;
+        for (int s = header.payloadSample(); bit < needed; s++) {
+            int k = plan.bits(s);
+            if (k == 0) {
+                continue;
+            }
+            int value = 0;
+            int taken = 0;
+            for (; taken < k && bit < needed; taken++, bit++) {
+                value = (value << 1) | ((message[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+            }
+            // A short final group fills the top of the field; the bits below keep their value
+            int shift = k - taken;
+            int mask = ((1 << taken) - 1) << shift;
+            carrier.setSample(s, (carrier.getSample(s) & ~mask) | (value << shift));
+        }
+    }
+
+    /**
+     * Reads the payload described by a header. The checksum is left to the
+     * caller.
+     * @param carrier Carrier samples
+     * @param header Header read from the carrier
+     * @return The payload, or null if it does not fit the carrier
+     */
+    public static byte[] extract(CarrierRaster carrier, StegoHeader header) {
+        SampleBits plan = new SampleBits(carrier, header);
+        long needed = (long) header.length * 8;
+        if (needed > plan.guaranteedBits() && needed > plan.capacityBits()) {
+            return null;
+        }
+        byte[] message = new byte[header.length];
+        long bit = 0;
+        for (int s = header.payloadSample(); bit < needed; s++) {
+            int k = plan.bits(s);
+            int sample = carrier.getSample(s);
+            for (int i = k - 1; i >= 0 && bit < needed; i--, bit++) {
+                message[(int) (bit >>> 3)] |= ((sample >>> i) & 1) << (7 - (bit & 7));
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Payload capacity in bytes for the given layout.
+     * @param carrier Carrier samples
+     * @param header Layout to measure; its length is ignored
+     * @return Bytes that fit after the header
+     */
+    public static long capacity(CarrierRaster carrier, StegoHeader header) {
+        if (carrier.samples() < header.payloadSample()) {
+            return 0;
+        }
+        return new SampleBits(carrier, header).capacityBits() / 8;
+    }
+
+    // Bits carried by each sample, with the block texture classes of one block row cached
+    private static final class SampleBits {
+        private final CarrierRaster carrier;
+        private final int[] channelBits;
+        private final boolean adaptive;
+        private final int threshold;
+        private final int maxBits;
+        private final int spp;
+        private final int width;
+        private final int start;
+        private final int[] blockBits;
+        private int cachedBlockRow = -1;
+
+        SampleBits(CarrierRaster carrier, StegoHeader header) {
+            this.carrier = carrier;
+            this.channelBits = header.channelBits;
+            this.adaptive = header.mode == StegoHeader.MODE_ADAPTIVE;
+            this.threshold = header.threshold;
+            this.spp = carrier.samplesPerPixel();
+            this.width = carrier.width();
+            this.start = header.payloadSample();
+            int max = 0;
+            for (int bits : channelBits) {
+                max = Math.max(max, bits);
+            }
+            this.maxBits = max;
+            this.blockBits = adaptive ? new int[(width + BLOCK - 1) / BLOCK] : null;
+        }
+
+        int bits(int sample) {
+            int pixel = sample / spp;
+            int cap = channelBits[sample - pixel * spp];
+            if (!adaptive || cap == 0) {
+                return cap;
+            }
+            int y = pixel / width;
+            int blockRow = y / BLOCK;
+            if (blockRow != cachedBlockRow) {
+                classify(blockRow);
+            }
+            return Math.min(cap, blockBits[(pixel - y * width) / BLOCK]);
+        }
+
+        // Lower bound without a texture scan: every used slot carries at least one bit
+        long guaranteedBits() {
+            long total = 0;
+            for (int slot = 0; slot < spp; slot++) {
+                if (channelBits[slot] > 0) {
+                    total += slotSamples(slot) * (adaptive ? 1 : channelBits[slot]);
+                }
+            }
+            return total;
+        }
+
+        // Exact capacity after the header; adaptive mode scans every block
+        long capacityBits() {
+            if (!adaptive) {
+                return guaranteedBits();
+            }
+            long total = 0;
+            for (int s = start; s < carrier.samples(); s++) {
+                total += bits(s);
+            }
+            return total;
+        }
+
+        // Samples of the given slot at or after the header
+        private long slotSamples(int slot) {
+            long all = carrier.samples() / spp;
+            long inHeader = (start - slot + spp - 1) / spp;
+            return Math.max(0, all - inHeader);
+        }
+
+        // Texture class of every block in a block row, from the variance of the untouched high bits
+        private void classify(int blockRow) {
+            int height = carrier.height();
+            int y0 = blockRow * BLOCK;
+            int y1 = Math.min(height, y0 + BLOCK);
+            for (int bx = 0; bx < blockBits.length; bx++) {
+                int x0 = bx * BLOCK;
+                int x1 = Math.min(width, x0 + BLOCK);
+                long sum = 0;
+                long sumSq = 0;
+                int n = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int base = (y * width + x) * spp;
+                        for (int c = 0; c < spp; c++) {
+                            int v = carrier.getSample(base + c) >>> maxBits;
+                            sum += v;
+                            sumSq += v * v;
+                            n++;
+                        }
+                    }
+                }
+                long variance = (sumSq * n - sum * sum) / ((long) n * n);
+                int bits;
+                if (variance < threshold) {
+                    bits = 1;
+                } else if (variance < 4L * threshold) {
+                    bits = 2;
+                } else if (variance < 16L * threshold) {
+                    bits = 3;
+                } else {
+                    bits = 4;
+                }
+                blockBits[bx] = bits;
+            }
+            cachedBlockRow = blockRow;
+        }
+    }
+}
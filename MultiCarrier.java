@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits one payload across several carriers so payload size and embedding
+ * throughput grow with the number of images and cores. Every carrier holds
+ * one equal-sized shard behind a {@link StegoHeader} flagged
+ * {@link StegoHeader#FLAG_SHARD}, and each shard starts with a manifest:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     8  set id, random per payload
+ *      8     2  shard index; the parity shard comes after the data shards
+ *     10     2  number of data shards
+ *     12     1  number of parity shards, 0 or 1
+ *     13     1  manifest version (1)
+ *     14     8  payload length in bytes
+ *     22     4  CRC32C of the whole payload
+ * </pre>
+ *
+ * With a parity shard (the XOR of all data shards) any one carrier may be
+ * lost. Carriers can be supplied for extraction in any order.
+ */
+public class MultiCarrier {
+
+    /** Bytes of manifest ahead of each shard. */
+    public static final int MANIFEST_BYTES = 26;
+
+    private static final int VERSION = 1;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java SteganographyApp shard embed --payload FILE --out DIR [--parity] [--threads N] CARRIER...",
+            "       java SteganographyApp shard extract --out FILE [--threads N] STEGO...");
+
+    /** One shard as read back from a carrier. */
+    public static final class Shard {
+        public final long setId;
+        public final int index;
+        public final int dataShards;
+        public final int parityShards;
+        public final long payloadLength;
+        public final int payloadCrc;
+        public final byte[] data;
+
+        private Shard(long setId, int index, int dataShards, int parityShards, long payloadLength, int payloadCrc,
+                      byte[] data) {
+            this.setId = setId;
+            this.index = index;
+            this.dataShards = dataShards;
+            this.parityShards = parityShards;
+            this.payloadLength = payloadLength;
+            this.payloadCrc = payloadCrc;
+            this.data = data;
+        }
+
+        /**
+         * @param bytes Payload extracted from a carrier flagged as a shard
+         * @return The shard, or null if the manifest is not valid
+         */
+        public static Shard parse(byte[] bytes) {
+            if (bytes.length <= MANIFEST_BYTES) {
+                return null;
+            }
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            long setId = b.getLong();
+            int index = b.getShort() & 0xFFFF;
+            int dataShards = b.getShort() & 0xFFFF;
+            int parityShards = b.get() & 0xFF;
+            int version = b.get();
+            long payloadLength = b.getLong();
+            int payloadCrc = b.getInt();
+            int shardLength = bytes.length - MANIFEST_BYTES;
+            if (version != VERSION || dataShards == 0 || parityShards > 1 || index >= dataShards + parityShards
+                    || payloadLength <= 0 || payloadLength > (long) shardLength * dataShards) {
+                return null;
+            }
+            return new Shard(setId, index, dataShards, parityShards, payloadLength, payloadCrc,
+                    Arrays.copyOfRange(bytes, MANIFEST_BYTES, bytes.length));
+        }
+    }
+
+    /**
+     * Cuts a payload into equal shards, each prefixed with its manifest.
+     * @param payload Payload bytes, already compressed or encrypted as wanted
+     * @param dataShards Number of data shards, 1 to 65535
+     * @param parity Whether to add an XOR parity shard
+     * @return Shard payloads in index order, parity last
+     */
+    public static List<byte[]> split(byte[] payload, int dataShards, boolean parity) {
+        if (dataShards < 1 || dataShards > 0xFFFF - 1) {
+            throw new IllegalArgumentException("Data shards must be 1 to 65534");
+        }
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("Payload must not be empty");
+        }
+        int shardLength = (int) ((payload.length + (long) dataShards - 1) / dataShards);
+        long setId = RANDOM.nextLong();
+        int crc = StegoHeader.checksum(payload, 0, payload.length);
+        int total = dataShards + (parity ? 1 : 0);
+        byte[] xor = parity ? new byte[shardLength] : null;
+        List<byte[]> shards = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            ByteBuffer b = ByteBuffer.allocate(MANIFEST_BYTES + shardLength);
+            b.putLong(setId).putShort((short) i).putShort((short) dataShards).put((byte) (parity ? 1 : 0))
+                    .put((byte) VERSION).putLong(payload.length).putInt(crc);
+            byte[] shard = b.array();
+            if (i < dataShards) {
+                int from = i * shardLength;
+                int len = Math.max(0, Math.min(shardLength, payload.length - from));
+                System.arraycopy(payload, from, shard, MANIFEST_BYTES, len);
+                if (xor != null) {
+                    xorInto(xor, shard, MANIFEST_BYTES);
+                }
+            } else {
+                System.arraycopy(xor, 0, shard, MANIFEST_BYTES, shardLength);
+            }
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Reassembles a payload from shards in any order, rebuilding one missing
+     * data shard from parity if needed. Duplicates are ignored.
+     * @param shards Shards of one set
+     * @return The payload, checked against the manifest's checksum
+     * @throws IOException if shards from different sets are mixed, too many are missing, or the result is corrupt
+     */
+    public static byte[] join(Collection<Shard> shards) throws IOException {
+        if (shards.isEmpty()) {
+            throw new IOException("No shards found");
+        }
+        Shard first = shards.iterator().next();
+        int shardLength = first.data.length;
+        Shard[] byIndex = new Shard[first.dataShards + first.parityShards];
+        for (Shard shard : shards) {
+            if (shard.setId != first.setId || shard.dataShards != first.dataShards
+                    || shard.parityShards != first.parityShards || shard.data.length != shardLength) {
+                throw new IOException("Carriers belong to different shard sets");
+            }
+            byIndex[shard.index] = shard;
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < first.dataShards; i++) {
+            if (byIndex[i] == null) {
+                missing.add(i);
+            }
+        }
+        byte[] rebuilt = null;
+        if (!missing.isEmpty()) {
+            if (missing.size() > 1 || first.parityShards == 0 || byIndex[first.dataShards] == null) {
+                throw new IOException("Missing shards " + missing + " of " + first.dataShards);
+            }
+            // XOR of the parity and every surviving data shard is the lost one
+            rebuilt = byIndex[first.dataShards].data.clone();
+            for (int i = 0; i < first.dataShards; i++) {
+                if (byIndex[i] != null) {
+                    xorInto(rebuilt, byIndex[i].data, 0);
+                }
+            }
+        }
+
+        byte[] payload = new byte[(int) first.payloadLength];
+        for (int i = 0; i < first.dataShards; i++) {
+            int from = i * shardLength;
+            int len = Math.max(0, Math.min(shardLength, payload.length - from));
+            byte[] data = byIndex[i] != null ? byIndex[i].data : rebuilt;
+            System.arraycopy(data, 0, payload, from, len);
+        }
+        if (StegoHeader.checksum(payload, 0, payload.length) != first.payloadCrc) {
+            throw new IOException("Reassembled payload does not match its checksum");
+        }
+        return payload;
+    }
+
+    /**
+     * Shards the payload over the carriers and embeds every shard
+     * concurrently, writing PNG stego images. With parity the last carrier
+     * holds the parity shard. Every task is waited for, even if one fails
+     * or the calling thread is interrupted; then, if any failed, the outputs
+     * this call started writing are removed and files it never touched are
+     * left alone. Interruption counts as a failure once the tasks are done.
+     * @param payload Payload bytes, already compressed or encrypted as wanted
+     * @param carriers Carrier image files
+     * @param outputs Destination files, one per carrier
+     * @param parity Whether to spend one carrier on XOR parity
+     * @param flags StegoHeader FLAG_* bits describing the payload
+     * @param encoder PNG settings for the outputs
+     * @param pool Runs one task per carrier
+     * @throws IOException if a carrier cannot be read or an output written
+     * @throws IllegalArgumentException if a shard does not fit its carrier
+     */
+    public static void embed(byte[] payload, List<Path> carriers, List<Path> outputs, boolean parity, int flags,
+                             PngEncoder encoder, ExecutorService pool) throws IOException {
+        if (carriers.size() != outputs.size()) {
+            throw new IllegalArgumentException("Need one output per carrier");
+        }
+        int dataShards = carriers.size() - (parity ? 1 : 0);
+        if (dataShards < 1) {
+            throw new IllegalArgumentException("Need at least one data carrier besides parity");
+        }
+        List<byte[]> shards = split(payload, dataShards, parity);
+        StegoOptions options = StegoOptions.defaults().flags(flags | StegoHeader.FLAG_SHARD);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        List<AtomicBoolean> touched = new ArrayList<>();
+        for (int i = 0; i < carriers.size(); i++) {
+            Path carrier = carriers.get(i);
+            Path output = outputs.get(i);
+            byte[] shard = shards.get(i);
+            AtomicBoolean writing = new AtomicBoolean();
+            touched.add(writing);
+            tasks.add(pool.submit(() -> {
+                try {
+                    embed(carrier, shard, output, encoder, options, writing);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(carrier + ": " + e.getMessage(), e);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(carrier + ": " + e.getMessage(), e);
+                }
+                return null;
+            }));
+        }
+        try {
+            awaitAll(tasks);
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < outputs.size(); i++) {
+                if (touched.get(i).get()) {
+                    Files.deleteIfExists(outputs.get(i));
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Decode, embed, then flag the output as ours just before it is opened for writing
+    private static void embed(Path carrier, byte[] shard, Path output, PngEncoder encoder, StegoOptions options,
+                              AtomicBoolean writing) throws IOException {
+        BufferedImage image;
+        try (InputStream in = Files.newInputStream(carrier)) {
+            image = LsbEmbedder.read(in);
+        }
+        BufferedImage stego = image;
+        try {
+            stego = LsbEmbedder.embed(image, shard, options);
+            writing.set(true);
+            encoder.write(stego, output);
+        } finally {
+            LsbEmbedder.release(image, stego);
+        }
+    }
+
+    /**
+     * Extracts the shards from the stego images concurrently and
+     * reassembles the payload. Images without a shard header are skipped.
+     * @param stegos Stego image files, in any order
+     * @param pool Runs one task per image
+     * @return The payload
+     * @throws IOException if an image cannot be read or the shards do not reassemble
+     */
+    public static byte[] extract(Collection<Path> stegos, ExecutorService pool) throws IOException {
+        List<Future<Shard>> tasks = new ArrayList<>();
+        for (Path stego : stegos) {
+            tasks.add(pool.submit(() -> {
+                StegoHeader header = LsbExtractor.readHeader(stego, false);
+                if (header == null || !header.hasFlag(StegoHeader.FLAG_SHARD)) {
+                    return null;
+                }
+                byte[] bytes = LsbExtractor.extractLazy(stego);
+                return bytes != null ? Shard.parse(bytes) : null;
+            }));
+        }
+        List<Shard> shards = new ArrayList<>();
+        for (Object shard : await(tasks)) {
+            if (shard != null) {
+                shards.add((Shard) shard);
+            }
+        }
+        return join(shards);
+    }
+
+    // Wait for every task to finish, interrupted or not, since a running embed cannot be
+    // stopped mid-write; then rethrow the first failure and restore the interrupt
+    private static void awaitAll(List<? extends Future<?>> tasks) throws IOException {
+        boolean interrupted = false;
+        ExecutionException failure = null;
+        for (Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw unwrap(failure);
+        }
+        if (interrupted) {
+            throw new IOException("Interrupted");
+        }
+    }
+
+    // Wait for every task, unwrapping the first failure
+    private static List<Object> await(List<? extends Future<?>> tasks) throws IOException {
+        List<Object> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<?> task : tasks) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            throw unwrap(e);
+        }
+        return results;
+    }
+
+    // The task's own exception, rethrown as is when it is unchecked
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException) {
+            return ((UncheckedIOException) cause).getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static void xorInto(byte[] acc, byte[] src, int srcOff) {
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] ^= src[srcOff + i];
+        }
+    }
+
+    /**
+     * Command-line entry point, reached through {@code SteganographyApp shard}.
+     * @param args embed or extract, options, then image files
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || !args[0].equals("embed") && !args[0].equals("extract")) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        boolean embed = args[0].equals("embed");
+        Path payload = null;
+        Path out = null;
+        boolean parity = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> images = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--parity")) {
+                parity = true;
+            } else if (option.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    System.err.println("Missing value for " + option);
+                    System.exit(2);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--payload": payload = Path.of(value); break;
+                    case "--out": out = Path.of(value); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    default:
+                        System.err.println("Unknown option " + option);
+                        System.err.println(USAGE);
+                        System.exit(2);
+                }
+            } else {
+                images.add(Path.of(option));
+            }
+        }
+        if (out == null || images.isEmpty() || embed && payload == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<Path> outputs = new ArrayList<>();
+        if (embed) {
+            // a.png and a.bmp, or x/a.png and y/a.png, would overwrite each other's shard
+            Map<Path, Path> seen = new HashMap<>();
+            for (Path image : images) {
+                String name = image.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                Path output = out.resolve("stego_" + (dot > 0 ? name.substring(0, dot) : name) + ".png");
+                Path other = seen.putIfAbsent(output.toAbsolutePath().normalize(), image);
+                if (other != null) {
+                    System.err.println(other + " and " + image + " would both write " + output);
+                    System.exit(2);
+                }
+                outputs.add(output);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, images.size())));
+        try {
+            long started = System.nanoTime();
+            if (embed) {
+                Files.createDirectories(out);
+                byte[] data = Files.readAllBytes(payload);
+                embed(data, images, outputs, parity, 0, PngEncoder.defaults(), pool);
+                System.out.printf("Embedded %d bytes into %d carriers in %d ms%n", data.length, images.size(),
+                        (System.nanoTime() - started) / 1_000_000);
+            } else {
+                byte[] data = extract(images, pool);
+                Files.write(out, data);
+                System.out.printf("Extracted %d bytes from %d carriers in %d ms%n", data.length, images.size(),
+                        (System.nanoTime() - started) / 1_000_000);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
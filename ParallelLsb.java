@@ -0,0 +1,99 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-core bit packing. The payload byte range is split into stripes that
+ * map onto disjoint, pixel-aligned sample ranges, so stripes never share a
+ * packed int pixel or an eight-byte BitPlane word, and the result is
+ * bit-for-bit the same as {@link CarrierRaster#pack}/{@link CarrierRaster#unpack}.
+ */
+public class ParallelLsb {
+
+    /**
+     * Writes {@code len} bytes into the LSBs of {@code len * 8} samples.
+     * @param carrier Carrier samples, modified in place
+     * @param src Payload bytes
+     * @param srcOff First payload byte
+     * @param len Number of payload bytes
+     * @param sampleOff First sample
+     * @param pool Pool to run stripes on
+     * @param threshold Stripe size in bytes below which work is not split further
+     */
+    public static void pack(CarrierRaster carrier, byte[] src, int srcOff, int len, int sampleOff,
+                            ForkJoinPool pool, int threshold) {
+        if (pool == null || len <= threshold) {
+            carrier.pack(src, srcOff, len, sampleOff);
+            return;
+        }
+        pool.invoke(new Stripe(carrier, src, srcOff, 0, len, sampleOff, threshold, true));
+    }
+
+    /**
+     * Reads {@code len} bytes from the LSBs of {@code len * 8} samples.
+     * @param carrier Carrier samples
+     * @param sampleOff First sample
+     * @param dst Destination buffer
+     * @param dstOff First destination byte
+     * @param len Number of bytes
+     * @param pool Pool to run stripes on
+     * @param threshold Stripe size in bytes below which work is not split further
+     */
+    public static void unpack(CarrierRaster carrier, int sampleOff, byte[] dst, int dstOff, int len,
+                              ForkJoinPool pool, int threshold) {
+        if (pool == null || len <= threshold) {
+            carrier.unpack(sampleOff, dst, dstOff, len);
+            return;
+        }
+        pool.invoke(new Stripe(carrier, dst, dstOff, 0, len, sampleOff, threshold, false));
+    }
+
+    // Byte index at or after 'from' whose first sample starts a pixel
+    static int alignedSplit(int from, int to, int sampleOff, int samplesPerPixel) {
+        int i = from;
+        while (i < to && (sampleOff + 8L * i) % samplesPerPixel != 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static final class Stripe extends RecursiveAction {
+        private final CarrierRaster carrier;
+        private final byte[] bytes;
+        private final int bytesOff;
+        private final int from;
+        private final int to;
+        private final int sampleOff;
+        private final int threshold;
+        private final boolean pack;
+
+        Stripe(CarrierRaster carrier, byte[] bytes, int bytesOff, int from, int to, int sampleOff,
+               int threshold, boolean pack) {
+            this.carrier = carrier;
+            this.bytes = bytes;
+            this.bytesOff = bytesOff;
+            this.from = from;
+            this.to = to;
+            this.sampleOff = sampleOff;
+            this.threshold = threshold;
+            this.pack = pack;
+        }
+
+        @Override
+        protected void compute() {
+            int len = to - from;
+            if (len > threshold) {
+                int mid = alignedSplit(from + len / 2, to, sampleOff, carrier.samplesPerPixel());
+                if (mid > from && mid < to) {
+                    invokeAll(new Stripe(carrier, bytes, bytesOff, from, mid, sampleOff, threshold, pack),
+                            new Stripe(carrier, bytes, bytesOff, mid, to, sampleOff, threshold, pack));
+                    return;
+                }
+            }
+            if (pack) {
+                carrier.pack(bytes, bytesOff + from, len, sampleOff + from * 8);
+            } else {
+                carrier.unpack(sampleOff + from * 8, bytes, bytesOff + from, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression format for payloads, applied before encryption. Besides the
+ * built-in {@link DeflateCodec}, implementations can be registered as
+ * {@link java.util.ServiceLoader} providers under
+ * {@code META-INF/services/PayloadCodec}; {@link PayloadCompression} finds
+ * them by id when extracting.
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return Identifier stored ahead of the compressed bytes, 1 to 255,
+     *         unique among the installed codecs
+     */
+    int id();
+
+    /** @return Short name for command lines and logs */
+    String name();
+
+    /**
+     * @param out Receives the compressed bytes; closed when the returned stream is
+     * @return A stream that compresses what is written to it
+     * @throws IOException if the stream cannot be set up
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * @param in Compressed bytes; closed when the returned stream is
+     * @return A stream that yields the decompressed bytes as they are read
+     * @throws IOException if the stream cannot be set up
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Compression stage that runs before encryption on embed and after
+ * decryption on extract. A compressed payload starts with the codec id
+ * followed by the codec's output, and the carrier header records
+ * {@link StegoHeader#FLAG_COMPRESSED}, so extraction knows whether to
+ * decompress and with what.
+ */
+public class PayloadCompression {
+
+    private static volatile List<PayloadCodec> codecs;
+
+    /**
+     * @return Deflate followed by any codecs found through {@link ServiceLoader}
+     */
+    public static List<PayloadCodec> codecs() {
+        List<PayloadCodec> list = codecs;
+        if (list == null) {
+            list = new ArrayList<>();
+            list.add(new DeflateCodec());
+            for (PayloadCodec codec : ServiceLoader.load(PayloadCodec.class)) {
+                if (codec.id() < 1 || codec.id() > 255) {
+                    throw new IllegalStateException("Codec " + codec.name() + " has an id outside 1 to 255");
+                }
+                list.add(codec);
+            }
+            codecs = list = Collections.unmodifiableList(list);
+        }
+        return list;
+    }
+
+    /**
+     * @param name Codec name, case-insensitive
+     * @return The codec
+     * @throws IllegalArgumentException if no installed codec has that name
+     */
+    public static PayloadCodec forName(String name) {
+        for (PayloadCodec codec : codecs()) {
+            if (codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    /**
+     * @param id Codec id read from a payload
+     * @return The codec, or null if none is installed with that id
+     */
+    public static PayloadCodec forId(int id) {
+        for (PayloadCodec codec : codecs()) {
+            if (codec.id() == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compresses the payload, keeping the result only if it is smaller.
+     * @param data Payload bytes
+     * @param codec Codec to use
+     * @return The codec id and compressed bytes, or null if compression does not pay off
+     */
+    public static byte[] compress(byte[] data, PayloadCodec codec) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.COMPRESS)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 2 + 16);
+            buffer.write(codec.id());
+            try (OutputStream out = codec.compress(buffer)) {
+                out.write(data);
+            } catch (IOException e) {
+                throw new IllegalStateException("In-memory compression failed", e);
+            }
+            span.done(data.length);
+            return buffer.size() < data.length ? buffer.toByteArray() : null;
+        }
+    }
+
+    /**
+     * Starts decompressing a compressed payload. Bytes are inflated as the
+     * returned stream is read, so large payloads can go straight to a file.
+     * @param in Codec id followed by compressed bytes; closed with the returned stream
+     * @return The decompressed stream
+     * @throws IOException if the codec is unknown or the stream is empty
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        int id = in.read();
+        if (id < 0) {
+            throw new IOException("Compressed payload is empty");
+        }
+        PayloadCodec codec = forId(id);
+        if (codec == null) {
+            throw new IOException("No codec installed for id " + id);
+        }
+        return codec.decompress(in);
+    }
+
+    /**
+     * Decompresses a payload held in memory, refusing to grow past a limit
+     * so a crafted payload cannot exhaust the heap.
+     * @param data Codec id followed by compressed bytes
+     * @param maxSize Largest decompressed size accepted
+     * @return The decompressed bytes
+     * @throws IOException if the codec is unknown, the data is corrupt or the limit is exceeded
+     */
+    public static byte[] decompress(byte[] data, int maxSize) throws IOException {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.DECOMPRESS)) {
+            byte[] inflated = inflate(data, maxSize);
+            span.done(inflated.length);
+            return inflated;
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int maxSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, data.length * 4));
+        try (InputStream in = decompress(new ByteArrayInputStream(data))) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (out.size() + n > maxSize) {
+                    throw new IOException("Decompressed payload exceeds " + maxSize + " bytes");
+                }
+                out.write(buf, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
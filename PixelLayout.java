@@ -0,0 +1,88 @@
+/**
+ * Maps the interleaved bytes of an encoded scanline to the logical sample
+ * order used by {@link CarrierRaster}: colour components in reverse order
+ * (B, G, R), preceded by alpha when the alpha plane carries payload bits.
+ */
+public class PixelLayout {
+
+    private final int pixelStride;
+    private final int[] offsets;
+    private final boolean identity;
+
+    /**
+     * @param pixelStride Bytes per pixel in the scanline
+     * @param offsets Offset within the pixel of each logical sample
+     */
+    public PixelLayout(int pixelStride, int[] offsets) {
+        this.pixelStride = pixelStride;
+        this.offsets = offsets;
+        boolean same = pixelStride == offsets.length;
+        for (int i = 0; i < offsets.length && same; i++) {
+            same = offsets[i] == i;
+        }
+        this.identity = same;
+    }
+
+    /**
+     * Layout of an 8-bit PNG scanline.
+     * @param colorType PNG colour type (0, 2, 4 or 6)
+     * @param useAlpha Whether the alpha channel carries payload bits
+     * @return The layout
+     */
+    public static PixelLayout forPng(int colorType, boolean useAlpha) {
+        switch (colorType) {
+            case 0: return new PixelLayout(1, new int[]{0});
+            case 2: return new PixelLayout(3, new int[]{2, 1, 0});
+            case 4: return new PixelLayout(2, useAlpha ? new int[]{1, 0} : new int[]{0});
+            case 6: return new PixelLayout(4, useAlpha ? new int[]{3, 2, 1, 0} : new int[]{2, 1, 0});
+            default: throw new IllegalArgumentException("Unsupported PNG colour type " + colorType);
+        }
+    }
+
+    public int samplesPerPixel() {
+        return offsets.length;
+    }
+
+    /** @return Whether scanline bytes are already in logical order, so gather/scatter are no-ops */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * Copies the carrier samples of a scanline into logical order.
+     * @param row Scanline bytes
+     * @param pixels Pixels in the scanline
+     * @param samples Receives {@code pixels * samplesPerPixel()} bytes
+     */
+    public void gather(byte[] row, int pixels, byte[] samples) {
+        if (identity) {
+            if (row != samples) System.arraycopy(row, 0, samples, 0, pixels * pixelStride);
+            return;
+        }
+        int s = 0;
+        for (int p = 0, base = 0; p < pixels; p++, base += pixelStride) {
+            for (int offset : offsets) {
+                samples[s++] = row[base + offset];
+            }
+        }
+    }
+
+    /**
+     * Copies logical samples back into their scanline positions.
+     * @param samples Samples in logical order
+     * @param pixels Pixels in the scanline
+     * @param row Scanline bytes, updated in place
+     */
+    public void scatter(byte[] samples, int pixels, byte[] row) {
+        if (identity) {
+            if (row != samples) System.arraycopy(samples, 0, row, 0, pixels * pixelStride);
+            return;
+        }
+        int s = 0;
+        for (int p = 0, base = 0; p < pixels; p++, base += pixelStride) {
+            for (int offset : offsets) {
+                row[base + offset] = samples[s++];
+            }
+        }
+    }
+}
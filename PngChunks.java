@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * PNG chunk constants and helpers shared by the scanline reader and writer.
+ */
+public class PngChunks {
+
+    public static final int IHDR = 0x49484452;
+    public static final int IDAT = 0x49444154;
+    public static final int IEND = 0x49454E44;
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24)
+                | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+
+    static void writeInt(int val, byte[] dest, int off) {
+        dest[off] = (byte) (val >>> 24);
+        dest[off + 1] = (byte) (val >>> 16);
+        dest[off + 2] = (byte) (val >>> 8);
+        dest[off + 3] = (byte) val;
+    }
+
+    // Reassemble a chunk exactly as it appeared in the file
+    static byte[] toChunk(int length, int type, byte[] data, int crc) {
+        byte[] chunk = new byte[12 + length];
+        writeInt(length, chunk, 0);
+        writeInt(type, chunk, 4);
+        System.arraycopy(data, 0, chunk, 8, length);
+        writeInt(crc, chunk, 8 + length);
+        return chunk;
+    }
+
+    // Build a complete chunk, CRC included
+    static byte[] chunk(int type, byte[] data) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = toChunk(data.length, type, data, 0);
+        crc.update(chunk, 4, 4 + data.length);
+        writeInt((int) crc.getValue(), chunk, 8 + data.length);
+        return chunk;
+    }
+
+    /**
+     * Writes one chunk with its length and CRC.
+     * @param out Destination stream
+     * @param type Chunk type
+     * @param data Chunk data
+     * @param off First data byte
+     * @param len Number of data bytes
+     * @throws IOException if the write fails
+     */
+    static void writeChunk(OutputStream out, int type, byte[] data, int off, int len) throws IOException {
+        byte[] head = new byte[8];
+        writeInt(len, head, 0);
+        writeInt(type, head, 4);
+        CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data, off, len);
+        byte[] tail = new byte[4];
+        writeInt((int) crc.getValue(), tail, 0);
+        out.write(head);
+        out.write(data, off, len);
+        out.write(tail);
+    }
+}
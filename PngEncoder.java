@@ -0,0 +1,533 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Configurable PNG writer for stego output. The compression level, deflate
+ * strategy and scanline filter are selectable, and with a pool set the image
+ * is cut into bands of rows that are filtered and deflated in parallel,
+ * pigz-style: each band is primed with the last 32 KB of the band before it
+ * as a preset dictionary and ends on a sync flush, so the bands concatenate
+ * into one zlib stream any decoder reads. Pixel values are written exactly;
+ * image types without a lossless 8-bit mapping go to {@link ImageIO}.
+ *
+ * {@link #uncompressed()} stores the rows without deflating them, for
+ * intermediate hops where write speed matters more than file size. The
+ * overloads taking a {@link ProgressListener} report rows written and stop
+ * when the calling thread is interrupted.
+ */
+public class PngEncoder {
+
+    /** Picks the filter per row by the minimum sum of absolute differences. */
+    public static final int FILTER_ADAPTIVE = -1;
+    /** Default size in bytes of the filtered data in one parallel band. */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private int level = 4;
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+    private int filter = FILTER_ADAPTIVE;
+    private ForkJoinPool pool;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /** @return Level 4 with adaptive filtering, like the JDK writer, single-threaded */
+    public static PngEncoder defaults() {
+        return new PngEncoder();
+    }
+
+    /** @return Stored (level 0) deflate blocks and no filtering */
+    public static PngEncoder uncompressed() {
+        return new PngEncoder().level(Deflater.NO_COMPRESSION).filter(0);
+    }
+
+    /**
+     * @param level Deflate level, 0 (store) to 9 (smallest)
+     * @return this
+     */
+    public PngEncoder level(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Level must be 0 to 9");
+        }
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED}
+     *                 or {@link Deflater#HUFFMAN_ONLY}
+     * @return this
+     */
+    public PngEncoder strategy(int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Unknown deflate strategy " + strategy);
+        }
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * @param filter PNG filter type 0 to 4 for every row, or {@link #FILTER_ADAPTIVE}
+     * @return this
+     */
+    public PngEncoder filter(int filter) {
+        if (filter < FILTER_ADAPTIVE || filter > 4) {
+            throw new IllegalArgumentException("Filter must be 0 to 4 or FILTER_ADAPTIVE");
+        }
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Deflates bands of rows on the given pool. Output is slightly larger
+     * than the sequential stream because of the per-band flush.
+     * @param pool Pool to compress on, or null for sequential
+     * @return this
+     */
+    public PngEncoder parallel(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Shortcut for {@link #parallel(ForkJoinPool)} with the common pool.
+     * @return this
+     */
+    public PngEncoder parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bytes Filtered bytes per parallel band; also the size below which
+     *              the image is encoded sequentially
+     * @return this
+     */
+    public PngEncoder chunkSize(int bytes) {
+        if (bytes < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least " + DICTIONARY_SIZE);
+        }
+        this.chunkSize = bytes;
+        return this;
+    }
+
+    /**
+     * Writes the image to a file.
+     * @param image Image to encode
+     * @param file Destination PNG file
+     * @return Number of bytes written
+     * @throws IOException if the write fails
+     */
+    public long write(BufferedImage image, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            return write(image, out);
+        }
+    }
+
+    /**
+     * Writes the image to a file, reporting rows written out of the image
+     * height. The file is left partly written if the write fails or is
+     * interrupted.
+     * @param image Image to encode
+     * @param file Destination PNG file
+     * @param progress Receives row progress on the calling thread
+     * @return Number of bytes written
+     * @throws IOException if the write fails
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    public long write(BufferedImage image, Path file, ProgressListener progress) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            return write(image, out, progress);
+        }
+    }
+
+    /**
+     * Writes the image as a PNG. The stream is flushed but not closed.
+     * @param image Image to encode
+     * @param out Destination stream
+     * @return Number of bytes written
+     * @throws IOException if the write fails
+     */
+    public long write(BufferedImage image, OutputStream out) throws IOException {
+        return write(image, out, null);
+    }
+
+    /**
+     * Writes the image as a PNG, reporting rows written out of the image
+     * height. The stream is flushed but not closed.
+     * @param image Image to encode
+     * @param out Destination stream
+     * @param progress Receives row progress on the calling thread, or null
+     *                 for no reporting and no interrupt checks
+     * @return Number of bytes written
+     * @throws IOException if the write fails
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    public long write(BufferedImage image, OutputStream out, ProgressListener progress) throws IOException {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.ENCODE)) {
+            long written = encode(image, out, progress);
+            span.done(written);
+            return written;
+        }
+    }
+
+    private long encode(BufferedImage image, OutputStream out, ProgressListener progress) throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        Rows rows = Rows.of(image);
+        if (rows == null) {
+            // Only reachable for types the embedders never produce, so no row progress here
+            rowsDone(progress, 0, image.getHeight());
+            if (!ImageIO.write(image, "png", counted)) {
+                throw new IOException("No PNG writer available");
+            }
+            counted.flush();
+            rowsDone(progress, image.getHeight(), image.getHeight());
+            return counted.count;
+        }
+
+        byte[] ihdr = new byte[13];
+        PngChunks.writeInt(image.getWidth(), ihdr, 0);
+        PngChunks.writeInt(image.getHeight(), ihdr, 4);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) rows.colorType;
+        byte[] header = PngChunks.chunk(PngChunks.IHDR, ihdr);
+        byte[] iend = PngChunks.chunk(PngChunks.IEND, new byte[0]);
+
+        long filteredSize = (long) image.getHeight() * (rows.rowBytes + 1);
+        if (pool == null || filteredSize <= chunkSize) {
+            writeSequential(rows, counted, header, iend, progress);
+        } else {
+            writeParallel(rows, counted, header, iend, progress);
+        }
+        counted.flush();
+        return counted.count;
+    }
+
+    private void writeSequential(Rows rows, OutputStream out, byte[] header, byte[] iend, ProgressListener progress)
+            throws IOException {
+        try (PngRowWriter writer = new PngRowWriter(out, Collections.singletonList(header), rows.bpp, level, strategy)) {
+            byte[] prev = new byte[rows.rowBytes + 1];
+            byte[] cur = new byte[rows.rowBytes + 1];
+            byte[] scratch = new byte[rows.rowBytes + 1];
+            for (int y = 0; y < rows.height; y++) {
+                rows.read(y, cur);
+                writer.writeRow(chooseFilter(cur, prev, rows.bpp, scratch), cur, 1, rows.rowBytes);
+                rowsDone(progress, y + 1, rows.height);
+                byte[] t = prev;
+                prev = cur;
+                cur = t;
+            }
+            writer.finish(Collections.singletonList(iend));
+        }
+    }
+
+    private void writeParallel(Rows rows, OutputStream out, byte[] header, byte[] iend, ProgressListener progress)
+            throws IOException {
+        int rowsPerBand = Math.max(1, chunkSize / (rows.rowBytes + 1));
+        List<Band> bands = new ArrayList<>();
+        for (int y = 0; y < rows.height; y += rowsPerBand) {
+            bands.add(new Band(rows, y, Math.min(rows.height, y + rowsPerBand)));
+        }
+        for (Band band : bands) {
+            pool.execute(band);
+        }
+
+        out.write(PngRowReader.SIGNATURE);
+        out.write(header);
+        long adler = 1;
+        try {
+            for (int i = 0; i < bands.size(); i++) {
+                Band band = bands.get(i);
+                band.join();
+                adler = combineAdler(adler, band.adler, band.rawLength);
+                int off = Band.HEAD_ROOM;
+                int end = band.length;
+                if (i == 0) {
+                    // zlib header: 32 KB window, deflate, FLEVEL from the level
+                    int cmf = 0x78;
+                    int flg = flevel() << 6;
+                    flg += 31 - (cmf * 256 + flg) % 31;
+                    band.out[--off] = (byte) flg;
+                    band.out[--off] = (byte) cmf;
+                }
+                if (i == bands.size() - 1) {
+                    PngChunks.writeInt((int) adler, band.out, end);
+                    end += 4;
+                }
+                PngChunks.writeChunk(out, PngChunks.IDAT, band.out, off, end - off);
+                BufferPool.release(band.out);
+                band.out = null;
+                rowsDone(progress, band.to, rows.height);
+            }
+        } finally {
+            for (Band band : bands) {
+                band.cancel(true);
+            }
+        }
+        out.write(iend);
+    }
+
+    // Report rows written and give up if the caller was interrupted; no-op without a listener
+    private static void rowsDone(ProgressListener progress, long done, long total) throws InterruptedIOException {
+        if (progress == null) {
+            return;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("PNG encoding interrupted");
+        }
+        progress.progress(done, total);
+    }
+
+    private int flevel() {
+        if (level < 2) return 0;
+        if (level < 6) return 1;
+        return level == 6 ? 2 : 3;
+    }
+
+    // Filter raw[1..] against prev and return the filter type; raw[0] is scratch for the type byte
+    private int chooseFilter(byte[] raw, byte[] prev, int bpp, byte[] scratch) {
+        if (filter != FILTER_ADAPTIVE) {
+            return filter;
+        }
+        int best = 0;
+        long bestSum = sumAbs(raw);
+        for (int f = 1; f <= 4; f++) {
+            PngRowWriter.filter(f, raw, prev, bpp, scratch);
+            long sum = sumAbs(scratch);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = f;
+            }
+        }
+        return best;
+    }
+
+    private static long sumAbs(byte[] row) {
+        long sum = 0;
+        for (int i = 1; i < row.length; i++) {
+            sum += Math.abs(row[i]);
+        }
+        return sum;
+    }
+
+    // zlib's adler32_combine: checksum of A followed by B from the checksums of A and B
+    static long combineAdler(long adler1, long adler2, long len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    // One band of rows: filtered, checksummed and deflated with the previous band's tail as dictionary
+    private final class Band extends RecursiveAction {
+        static final int HEAD_ROOM = 2;
+
+        private final Rows rows;
+        private final int from;
+        private final int to;
+        byte[] out;
+        int length;
+        long adler;
+        long rawLength;
+
+        Band(Rows rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int stride = rows.rowBytes + 1;
+            // Filtered rows before 'from' that make up the dictionary, then this band's rows
+            int dictRows = from == 0 ? 0 : Math.min(from, (DICTIONARY_SIZE + stride - 1) / stride);
+            int first = from - dictRows;
+            int filteredLength = (to - first) * stride;
+            byte[] filtered = BufferPool.bytes(filteredLength);
+            byte[] prev = new byte[stride];
+            byte[] cur = new byte[stride];
+            byte[] scratch = new byte[stride];
+            if (first > 0) {
+                rows.read(first - 1, prev);
+            }
+            for (int y = first; y < to; y++) {
+                rows.read(y, cur);
+                int f = chooseFilter(cur, prev, rows.bpp, scratch);
+                int at = (y - first) * stride;
+                if (f == 0) {
+                    System.arraycopy(cur, 0, filtered, at, stride);
+                    filtered[at] = 0;
+                } else {
+                    PngRowWriter.filter(f, cur, prev, rows.bpp, scratch);
+                    System.arraycopy(scratch, 0, filtered, at, stride);
+                }
+                byte[] t = prev;
+                prev = cur;
+                cur = t;
+            }
+
+            int start = dictRows * stride;
+            rawLength = filteredLength - start;
+            Adler32 checksum = new Adler32();
+            checksum.update(filtered, start, (int) rawLength);
+            adler = checksum.getValue();
+
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setStrategy(strategy);
+                if (start > 0) {
+                    int dictLength = Math.min(start, DICTIONARY_SIZE);
+                    deflater.setDictionary(filtered, start - dictLength, dictLength);
+                }
+                deflater.setInput(filtered, start, (int) rawLength);
+                boolean last = to == rows.height;
+                if (last) {
+                    deflater.finish();
+                }
+                out = BufferPool.bytes(HEAD_ROOM + (int) Math.min(Integer.MAX_VALUE / 2, rawLength + rawLength / 1000 + 64) + 4);
+                length = HEAD_ROOM;
+                while (true) {
+                    int space = out.length - 4 - length;
+                    if (space == 0) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                        continue;
+                    }
+                    // A sync flush is complete once all input is taken and the output did not fill up
+                    int n = deflater.deflate(out, length, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    length += n;
+                    if (last ? deflater.finished() : deflater.needsInput() && n < space) {
+                        break;
+                    }
+                }
+            } finally {
+                deflater.end();
+                BufferPool.release(filtered);
+            }
+        }
+    }
+
+    // Reads PNG scanlines (RGB, RGBA or gray, 8 bits per sample) from an image
+    private abstract static class Rows {
+        final int width;
+        final int height;
+        final int colorType;
+        final int bpp;
+        final int rowBytes;
+
+        Rows(BufferedImage image, int colorType, int bpp) {
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.colorType = colorType;
+            this.bpp = bpp;
+            this.rowBytes = width * bpp;
+        }
+
+        // Fill dst[1..rowBytes] with row y; dst[0] is left for the filter type
+        abstract void read(int y, byte[] dst);
+
+        static Rows of(BufferedImage image) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    return new ByteRows(image, 2, 3);
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    return new ByteRows(image, 6, 4);
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    return new ByteRows(image, 0, 1);
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_BGR:
+                    return new IntRows(image, 2, 3);
+                case BufferedImage.TYPE_INT_ARGB:
+                    return new IntRows(image, 6, 4);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Component rasters return their samples in band order (R,G,B[,A] or gray), which is PNG order
+    private static final class ByteRows extends Rows {
+        private final BufferedImage image;
+        private final ThreadLocal<byte[]> line;
+
+        ByteRows(BufferedImage image, int colorType, int bpp) {
+            super(image, colorType, bpp);
+            this.image = image;
+            this.line = ThreadLocal.withInitial(() -> new byte[rowBytes]);
+        }
+
+        @Override
+        void read(int y, byte[] dst) {
+            byte[] row = line.get();
+            image.getRaster().getDataElements(0, y, width, 1, row);
+            System.arraycopy(row, 0, dst, 1, rowBytes);
+        }
+    }
+
+    // Packed int pixels, converted through getRGB which is exact for these types
+    private static final class IntRows extends Rows {
+        private final BufferedImage image;
+        private final ThreadLocal<int[]> line;
+
+        IntRows(BufferedImage image, int colorType, int bpp) {
+            super(image, colorType, bpp);
+            this.image = image;
+            this.line = ThreadLocal.withInitial(() -> new int[width]);
+        }
+
+        @Override
+        void read(int y, byte[] dst) {
+            int[] argb = line.get();
+            image.getRGB(0, y, width, 1, argb, 0, width);
+            for (int x = 0, i = 1; x < width; x++) {
+                int p = argb[x];
+                dst[i++] = (byte) (p >>> 16);
+                dst[i++] = (byte) (p >>> 8);
+                dst[i++] = (byte) p;
+                if (bpp == 4) {
+                    dst[i++] = (byte) (p >>> 24);
+                }
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Minimal scanline decoder for non-interlaced 8-bit greyscale, grey+alpha,
+ * RGB and RGBA PNG files. Rows are inflated and unfiltered one at a time, so
+ * only two rows are ever held in memory regardless of image size.
+ */
+public class PngRowReader implements Closeable {
+
+    static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /** Largest non-IDAT chunk read into memory; image data is streamed and not limited. */
+    public static final int MAX_CHUNK_BYTES = 16 << 20;
+    /** Largest decoded row in bytes, 16 M pixels of 8-bit RGBA. */
+    public static final int MAX_ROW_BYTES = 64 << 20;
+
+    private static final int IHDR_LENGTH = 13;
+
+    private final DataInputStream in;
+    private final List<byte[]> headerChunks = new ArrayList<>();
+    private int width;
+    private int height;
+    private int bitDepth;
+    private int colorType;
+    private int interlace;
+    private int channels;
+
+    private IdatStream idat;
+    private InflaterInputStream pixels;
+    private Inflater inflater;
+    private byte[] prev;
+    private byte[] cur;
+    private int rowsRead;
+
+    /**
+     * Reads the PNG signature and every chunk up to the first IDAT.
+     * @param in PNG stream, left open by {@link #close}
+     * @throws IOException if the stream is not a PNG, or a chunk length or
+     *         the image size is out of range
+     */
+    public PngRowReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        byte[] sig = new byte[SIGNATURE.length];
+        this.in.readFully(sig);
+        for (int i = 0; i < sig.length; i++) {
+            if (sig[i] != SIGNATURE[i]) {
+                throw new IOException("Not a PNG file");
+            }
+        }
+
+        while (true) {
+            int length = readLength(this.in);
+            int type = this.in.readInt();
+            if (type == PngChunks.IDAT) {
+                if (width == 0) {
+                    throw new IOException("IDAT before IHDR");
+                }
+                inflater = new Inflater();
+                idat = new IdatStream(length);
+                pixels = new InflaterInputStream(idat, inflater, 64 * 1024);
+                break;
+            }
+            if (type == PngChunks.IHDR && length != IHDR_LENGTH) {
+                throw new IOException("Bad IHDR length " + length);
+            }
+            byte[] data = new byte[checkChunkLength(length)];
+            this.in.readFully(data);
+            int crc = this.in.readInt();
+            if (type == PngChunks.IHDR) {
+                width = PngChunks.readInt(data, 0);
+                height = PngChunks.readInt(data, 4);
+                bitDepth = data[8] & 0xFF;
+                colorType = data[9] & 0xFF;
+                interlace = data[12] & 0xFF;
+                channels = channelsFor(colorType);
+                // Rows are allocated from the width, so bound it before anyone does
+                if (width <= 0 || height <= 0 || (long) width * 4 > MAX_ROW_BYTES) {
+                    throw new IOException("Unsupported PNG size " + (width & 0xFFFFFFFFL) + "x" + (height & 0xFFFFFFFFL));
+                }
+            } else if (type == PngChunks.IEND) {
+                throw new IOException("PNG has no image data");
+            }
+            headerChunks.add(PngChunks.toChunk(length, type, data, crc));
+        }
+    }
+
+    /** @return Whether {@link #readRow} can decode this file */
+    public boolean isSupported() {
+        return bitDepth == 8 && channels > 0 && interlace == 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getColorType() {
+        return colorType;
+    }
+
+    /** @return Bytes per pixel, which is also the number of channels */
+    public int getChannels() {
+        return channels;
+    }
+
+    /** @return Whether the last channel of each pixel is alpha */
+    public boolean hasAlpha() {
+        return colorType == 4 || colorType == 6;
+    }
+
+    /** @return The raw chunks preceding the image data, IHDR first */
+    public List<byte[]> getHeaderChunks() {
+        return headerChunks;
+    }
+
+    /**
+     * Decodes the next row.
+     * @param dst Receives {@code width * channels} unfiltered bytes
+     * @return The PNG filter type the row was encoded with
+     * @throws IOException if the data is truncated or corrupt
+     */
+    public int readRow(byte[] dst) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unsupported PNG layout: bit depth " + bitDepth + ", colour type " + colorType
+                    + (interlace != 0 ? ", interlaced" : ""));
+        }
+        if (rowsRead == height) {
+            throw new EOFException("No more rows");
+        }
+        int rowBytes = width * channels;
+        if (cur == null) {
+            cur = new byte[rowBytes + 1];
+            prev = new byte[rowBytes + 1];
+        }
+        readFully(pixels, cur);
+        int filter = cur[0] & 0xFF;
+        unfilter(filter, cur, prev, channels);
+        System.arraycopy(cur, 1, dst, 0, rowBytes);
+
+        byte[] t = prev;
+        prev = cur;
+        cur = t;
+        rowsRead++;
+        return filter;
+    }
+
+    /**
+     * Drains the remaining image data and returns the raw chunks following
+     * it, IEND last. Only valid once every row has been read.
+     * @return The trailing chunks
+     * @throws IOException if the stream is truncated
+     */
+    public List<byte[]> readTrailerChunks() throws IOException {
+        byte[] skip = new byte[8192];
+        while (pixels.read(skip) >= 0) {
+            // Discard any slack after the last row
+        }
+        while (idat.read(skip) >= 0) {
+            // and anything after the end of the zlib stream
+        }
+        List<byte[]> chunks = new ArrayList<>();
+        int length = idat.nextLength;
+        int type = idat.nextType;
+        while (true) {
+            byte[] data = new byte[checkChunkLength(length)];
+            in.readFully(data);
+            chunks.add(PngChunks.toChunk(length, type, data, in.readInt()));
+            if (type == PngChunks.IEND) {
+                return chunks;
+            }
+            length = readLength(in);
+            type = in.readInt();
+        }
+    }
+
+    /**
+     * Releases the inflater. The underlying stream is left open for the
+     * caller to close.
+     */
+    @Override
+    public void close() {
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Checks a file for the PNG signature.
+     * @param file File to check
+     * @return Whether the file starts with the PNG signature
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isPng(Path file) throws IOException {
+        byte[] sig = new byte[SIGNATURE.length];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.readNBytes(sig, 0, sig.length) != sig.length) {
+                return false;
+            }
+        }
+        return Arrays.equals(sig, SIGNATURE);
+    }
+
+    static int channelsFor(int colorType) {
+        switch (colorType) {
+            case 0: return 1;
+            case 2: return 3;
+            case 4: return 2;
+            case 6: return 4;
+            default: return 0;
+        }
+    }
+
+    // Undo the PNG filter in place; row[0] is the filter type byte
+    static void unfilter(int filter, byte[] row, byte[] prev, int bpp) {
+        int n = row.length;
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1 + bpp; i < n; i++) {
+                    row[i] += row[i - bpp];
+                }
+                break;
+            case 2:
+                for (int i = 1; i < n; i++) {
+                    row[i] += prev[i];
+                }
+                break;
+            case 3:
+                for (int i = 1; i < n; i++) {
+                    int left = i > bpp ? row[i - bpp] & 0xFF : 0;
+                    row[i] += (byte) ((left + (prev[i] & 0xFF)) >>> 1);
+                }
+                break;
+            case 4:
+                for (int i = 1; i < n; i++) {
+                    int a = i > bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i > bpp ? prev[i - bpp] & 0xFF : 0;
+                    row[i] += (byte) paeth(a, b, c);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Bad PNG filter type " + filter);
+        }
+    }
+
+    static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    // Chunk lengths are unsigned 31-bit values; anything with the top bit set is corrupt
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Bad PNG chunk length " + (length & 0xFFFFFFFFL));
+        }
+        return length;
+    }
+
+    // Non-IDAT chunks are buffered whole, so their length decides an allocation
+    private static int checkChunkLength(int length) throws IOException {
+        if (length > MAX_CHUNK_BYTES) {
+            throw new IOException("PNG chunk of " + length + " bytes exceeds " + MAX_CHUNK_BYTES);
+        }
+        return length;
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            if (n < 0) {
+                throw new EOFException("Truncated PNG image data");
+            }
+            off += n;
+        }
+    }
+
+    // Concatenated payload of consecutive IDAT chunks
+    private final class IdatStream extends InputStream {
+        private int remaining;
+        private boolean done;
+        int nextLength;
+        int nextType;
+
+        IdatStream(int length) {
+            this.remaining = length;
+        }
+
+        private boolean advance() throws IOException {
+            while (remaining == 0 && !done) {
+                in.readInt(); // CRC of the finished chunk
+                int length = readLength(in);
+                int type = in.readInt();
+                if (type == PngChunks.IDAT) {
+                    remaining = length;
+                } else {
+                    nextLength = length;
+                    nextType = type;
+                    done = true;
+                }
+            }
+            return !done;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!advance()) return -1;
+            remaining--;
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!advance()) return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated PNG chunk");
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Scanline PNG encoder, the counterpart of {@link PngRowReader}. Rows are
+ * filtered and deflated as they arrive and emitted as a series of IDAT
+ * chunks, so only two rows are held in memory.
+ */
+public class PngRowWriter implements Closeable {
+
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int bpp;
+    private final Deflater deflater;
+    private final DeflaterOutputStream pixels;
+    private byte[] prev;
+    private byte[] cur;
+    private byte[] filtered;
+
+    /**
+     * Writes the PNG signature and the given header chunks.
+     * @param out Destination stream, left open by {@link #close}
+     * @param headerChunks Raw chunks up to the image data, IHDR first
+     * @param channels Bytes per pixel
+     * @param level Deflate compression level
+     * @throws IOException if the write fails
+     */
+    public PngRowWriter(OutputStream out, List<byte[]> headerChunks, int channels, int level) throws IOException {
+        this(out, headerChunks, channels, level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Writes the PNG signature and the given header chunks.
+     * @param out Destination stream, left open by {@link #close}
+     * @param headerChunks Raw chunks up to the image data, IHDR first
+     * @param channels Bytes per pixel
+     * @param level Deflate compression level
+     * @param strategy Deflate strategy
+     * @throws IOException if the write fails
+     */
+    public PngRowWriter(OutputStream out, List<byte[]> headerChunks, int channels, int level, int strategy)
+            throws IOException {
+        this.out = out;
+        this.bpp = channels;
+        out.write(PngRowReader.SIGNATURE);
+        for (byte[] chunk : headerChunks) {
+            out.write(chunk);
+        }
+        deflater = new Deflater(level);
+        deflater.setStrategy(strategy);
+        pixels = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_SIZE);
+    }
+
+    /**
+     * Filters and compresses one row.
+     * @param filter PNG filter type to apply, 0 to 4
+     * @param row Unfiltered row bytes
+     * @param len Number of row bytes
+     * @throws IOException if the write fails
+     */
+    public void writeRow(int filter, byte[] row, int len) throws IOException {
+        writeRow(filter, row, 0, len);
+    }
+
+    /**
+     * Filters and compresses one row.
+     * @param filter PNG filter type to apply, 0 to 4
+     * @param row Buffer holding the unfiltered row
+     * @param off First row byte
+     * @param len Number of row bytes
+     * @throws IOException if the write fails
+     */
+    public void writeRow(int filter, byte[] row, int off, int len) throws IOException {
+        if (cur == null) {
+            cur = new byte[len + 1];
+            prev = new byte[len + 1];
+            filtered = new byte[len + 1];
+        }
+        cur[0] = (byte) filter;
+        System.arraycopy(row, off, cur, 1, len);
+        if (filter == 0) {
+            pixels.write(cur, 0, len + 1);
+        } else {
+            filter(filter, cur, prev, bpp, filtered);
+            pixels.write(filtered, 0, len + 1);
+        }
+        byte[] t = prev;
+        prev = cur;
+        cur = t;
+    }
+
+    /**
+     * Ends the image data and writes the trailing chunks.
+     * @param trailerChunks Raw chunks after the image data, IEND last
+     * @throws IOException if the write fails
+     */
+    public void finish(List<byte[]> trailerChunks) throws IOException {
+        pixels.finish();
+        pixels.flush();
+        for (byte[] chunk : trailerChunks) {
+            out.write(chunk);
+        }
+    }
+
+    /**
+     * Releases the deflater. The underlying stream is left open for the
+     * caller to close.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    // Apply a PNG filter; raw[0] and out[0] hold the filter type byte
+    static void filter(int filter, byte[] raw, byte[] prev, int bpp, byte[] out) {
+        int n = raw.length;
+        out[0] = (byte) filter;
+        for (int i = 1; i < n; i++) {
+            int a = i > bpp ? raw[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i > bpp ? prev[i - bpp] & 0xFF : 0;
+            int pred;
+            switch (filter) {
+                case 1: pred = a; break;
+                case 2: pred = b; break;
+                case 3: pred = (a + b) >>> 1; break;
+                case 4: pred = PngRowReader.paeth(a, b, c); break;
+                default: pred = 0;
+            }
+            out[i] = (byte) (raw[i] - pred);
+        }
+    }
+
+    // Buffers compressed bytes into fixed-size IDAT chunks
+    private final class IdatOutputStream extends OutputStream {
+        private final byte[] buf = new byte[IDAT_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) flush();
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) flush();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                PngChunks.writeChunk(out, PngChunks.IDAT, buf, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
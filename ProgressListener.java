@@ -0,0 +1,22 @@
+/**
+ * Receives progress from long-running embed and extract calls. The units
+ * of {@code done} and {@code total} are chosen by the caller reporting them
+ * (image rows, bytes); only their ratio is meaningful, and {@code total} may
+ * grow once the message length is known. Called on the worker thread.
+ *
+ * Operations that accept a listener also check the worker's interrupt
+ * status between rows and give up with an
+ * {@link java.io.InterruptedIOException} when it is set.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /** Ignores all progress. */
+    ProgressListener NONE = (done, total) -> { };
+
+    /**
+     * @param done Work units finished so far
+     * @param total Work units expected in all
+     */
+    void progress(long done, long total);
+}
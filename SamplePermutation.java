@@ -0,0 +1,79 @@
+/**
+ * Keyed pseudo-random permutation of the sample indices {@code [0, n)},
+ * used to scatter payload bits over the whole carrier. It is a balanced
+ * Feistel network on the smallest even number of bits covering {@code n},
+ * with cycle-walking to stay inside the domain, so any single index maps in
+ * constant time and no per-sample table is ever allocated: embedding
+ * {@code b} bits costs O(b) whatever the image size.
+ *
+ * The round keys come from the {@link TeaKey} through XTEA, so they are
+ * fixed by the password without exposing the cipher key; the round function
+ * itself is a fast 64-bit mixer, which spreads bits well but is not meant to
+ * be a cryptographic permutation on its own.
+ */
+public final class SamplePermutation {
+
+    private static final int ROUNDS = 6;
+
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    /**
+     * @param key Key the permutation is derived from
+     * @param size Number of samples, at least 1
+     */
+    public SamplePermutation(TeaKey key, long size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Permutation needs at least one sample");
+        }
+        this.size = size;
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(size - 1));
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+        for (int r = 0; r < ROUNDS; r++) {
+            // Domain-separated from any data block: "SCAT" and the round number
+            roundKeys[r] = XTEA.encryptBlock(0x53434154, r, key);
+        }
+    }
+
+    /** @return The number of samples permuted */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param index Position in the payload bit stream, {@code 0 <= index < size}
+     * @return The carrier sample that holds it
+     */
+    public long apply(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside [0, " + size + ")");
+        }
+        long x = index;
+        do {
+            x = encrypt(x);
+        } while (x >= size);
+        return x;
+    }
+
+    // One pass of the Feistel network over the 2 * halfBits domain
+    private long encrypt(long x) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+        for (int r = 0; r < ROUNDS; r++) {
+            long next = left ^ (mix(right ^ roundKeys[r]) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
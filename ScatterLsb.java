@@ -0,0 +1,78 @@
+/**
+ * Bit packing through a {@link SamplePermutation}: payload bit {@code i}
+ * (length prefix first, as in the sequential layout) lives in carrier sample
+ * {@code perm.apply(i)} instead of sample {@code i}. Only the samples that
+ * hold payload are visited. Runs on the calling thread, since scattered
+ * writes to packed int pixels cannot be split into disjoint stripes.
+ */
+public class ScatterLsb {
+
+    /**
+     * Writes {@code len} bytes MSB first starting at payload bit {@code bitOff}.
+     * @param carrier Carrier samples, modified in place
+     * @param perm Permutation over the carrier's samples
+     * @param src Payload bytes
+     * @param srcOff First payload byte
+     * @param len Number of payload bytes
+     * @param bitOff Payload bit position of the first byte
+     */
+    public static void pack(CarrierRaster carrier, SamplePermutation perm, byte[] src, int srcOff, int len,
+                            long bitOff) {
+        long bit = bitOff;
+        for (int i = 0; i < len; i++) {
+            int b = src[srcOff + i];
+            for (int k = 7; k >= 0; k--) {
+                carrier.setBit((int) perm.apply(bit++), (b >>> k) & 1);
+            }
+        }
+    }
+
+    /**
+     * Reads {@code len} bytes MSB first starting at payload bit {@code bitOff}.
+     * @param carrier Carrier samples
+     * @param perm Permutation over the carrier's samples
+     * @param bitOff Payload bit position of the first byte
+     * @param dst Destination buffer
+     * @param dstOff First destination byte
+     * @param len Number of bytes
+     */
+    public static void unpack(CarrierRaster carrier, SamplePermutation perm, long bitOff, byte[] dst, int dstOff,
+                              int len) {
+        long bit = bitOff;
+        for (int i = 0; i < len; i++) {
+            int b = 0;
+            for (int k = 0; k < 8; k++) {
+                b = (b << 1) | carrier.getBit((int) perm.apply(bit++));
+            }
+            dst[dstOff + i] = (byte) b;
+        }
+    }
+
+    /**
+     * Writes a 32-bit big-endian value starting at payload bit {@code bitOff}.
+     * @param carrier Carrier samples, modified in place
+     * @param perm Permutation over the carrier's samples
+     * @param value Value to write
+     * @param bitOff Payload bit position of the most significant bit
+     */
+    public static void packInt(CarrierRaster carrier, SamplePermutation perm, int value, long bitOff) {
+        for (int k = 0; k < 32; k++) {
+            carrier.setBit((int) perm.apply(bitOff + k), (value >>> (31 - k)) & 1);
+        }
+    }
+
+    /**
+     * Reads a 32-bit big-endian value starting at payload bit {@code bitOff}.
+     * @param carrier Carrier samples
+     * @param perm Permutation over the carrier's samples
+     * @param bitOff Payload bit position of the most significant bit
+     * @return The value
+     */
+    public static int unpackInt(CarrierRaster carrier, SamplePermutation perm, long bitOff) {
+        int value = 0;
+        for (int k = 0; k < 32; k++) {
+            value = (value << 1) | carrier.getBit((int) perm.apply(bitOff + k));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,189 @@
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Authenticated encryption for payloads: XTEA in CTR mode, then an
+ * HMAC-SHA256 tag over everything before it (encrypt-then-MAC). The tag is
+ * checked in constant time before any decryption, so a wrong password or a
+ * tampered payload fails after one HMAC pass instead of after decrypting
+ * and decoding garbage, and TEA's ECB patterns and malleability go away.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  version (1)
+ *      1    16  salt
+ *     17     8  CTR IV, random per payload
+ *     25     n  ciphertext
+ *   25+n    32  HMAC-SHA256 tag
+ * </pre>
+ *
+ * The password and salt go through {@link #kdf()} (PBKDF2) to a master
+ * key, from which separate cipher and MAC keys are expanded with XTEA, so
+ * the expensive step yields a {@link TeaKey} and can sit behind a
+ * {@link KeyCache}. Callers sealing many payloads under one password may
+ * reuse a salt; the random IV keeps keystreams apart.
+ */
+public class SealedPayload {
+
+    public static final int VERSION = 1;
+    public static final int SALT_BYTES = 16;
+    public static final int IV_BYTES = 8;
+    public static final int TAG_BYTES = 32;
+    /** Bytes added to the plaintext. */
+    public static final int OVERHEAD = 1 + SALT_BYTES + IV_BYTES + TAG_BYTES;
+
+    private static final int HEAD = 1 + SALT_BYTES + IV_BYTES;
+    private static final KeyDerivation KDF = KeyDerivation.pbkdf2();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** @return The password derivation of version 1 payloads, for a {@link KeyCache} */
+    public static KeyDerivation kdf() {
+        return KDF;
+    }
+
+    /** @return A fresh random salt */
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Seals a payload under a password with a fresh salt, deriving the key
+     * without a cache.
+     * @param plaintext Payload bytes
+     * @param password Password characters; not retained
+     * @return The sealed payload
+     * @throws GeneralSecurityException if key derivation fails
+     */
+    public static byte[] seal(byte[] plaintext, char[] password) throws GeneralSecurityException {
+        byte[] salt = newSalt();
+        byte[] raw = KDF.derive(password, salt);
+        TeaKey master = TeaKey.of(raw);
+        Arrays.fill(raw, (byte) 0);
+        return seal(plaintext, master, salt);
+    }
+
+    /**
+     * Seals a payload under a master key already derived from the salt.
+     * @param plaintext Payload bytes
+     * @param master {@link #kdf()} of the password and salt
+     * @param salt Salt the master key was derived with
+     * @return The sealed payload
+     */
+    public static byte[] seal(byte[] plaintext, TeaKey master, byte[] salt) {
+        if (salt.length != SALT_BYTES) {
+            throw new IllegalArgumentException("Salt must be " + SALT_BYTES + " bytes");
+        }
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.ENCRYPT)) {
+            byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+            byte[] sealed = new byte[plaintext.length + OVERHEAD];
+            sealed[0] = VERSION;
+            System.arraycopy(salt, 0, sealed, 1, SALT_BYTES);
+            System.arraycopy(iv, 0, sealed, 1 + SALT_BYTES, IV_BYTES);
+            XTEA.newCtr(cipherKey(master), iv).update(plaintext, 0, plaintext.length, sealed, HEAD);
+            Mac mac = mac(master);
+            mac.update(sealed, 0, HEAD + plaintext.length);
+            try {
+                mac.doFinal(sealed, HEAD + plaintext.length);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Tag does not fit", e);
+            }
+            span.done(plaintext.length);
+            return sealed;
+        }
+    }
+
+    /**
+     * @param sealed A sealed payload
+     * @return The salt to derive its master key with
+     * @throws IllegalArgumentException if the bytes are not a sealed payload
+     */
+    public static byte[] salt(byte[] sealed) {
+        checkFormat(sealed);
+        return Arrays.copyOfRange(sealed, 1, 1 + SALT_BYTES);
+    }
+
+    /**
+     * Verifies and decrypts a payload, deriving the key without a cache.
+     * @param sealed The sealed payload
+     * @param password Password characters; not retained
+     * @return The plaintext
+     * @throws AEADBadTagException if the password is wrong or the payload was changed
+     * @throws GeneralSecurityException if key derivation fails
+     */
+    public static byte[] open(byte[] sealed, char[] password) throws GeneralSecurityException {
+        byte[] raw = KDF.derive(password, salt(sealed));
+        TeaKey master = TeaKey.of(raw);
+        Arrays.fill(raw, (byte) 0);
+        return open(sealed, master);
+    }
+
+    /**
+     * Verifies the tag and only then decrypts.
+     * @param sealed The sealed payload
+     * @param master {@link #kdf()} of the password and {@link #salt(byte[])}
+     * @return The plaintext
+     * @throws AEADBadTagException if the key is wrong or the payload was changed
+     */
+    public static byte[] open(byte[] sealed, TeaKey master) throws AEADBadTagException {
+        checkFormat(sealed);
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.DECRYPT)) {
+            int length = sealed.length - OVERHEAD;
+            Mac mac = mac(master);
+            mac.update(sealed, 0, HEAD + length);
+            byte[] expected = mac.doFinal();
+            // MessageDigest.isEqual takes the same time wherever the tags differ
+            if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(sealed, HEAD + length, sealed.length))) {
+                throw new AEADBadTagException("Wrong password or tampered payload");
+            }
+            byte[] iv = Arrays.copyOfRange(sealed, 1 + SALT_BYTES, HEAD);
+            byte[] plaintext = new byte[length];
+            XTEA.newCtr(cipherKey(master), iv).update(sealed, HEAD, length, plaintext, 0);
+            span.done(length);
+            return plaintext;
+        }
+    }
+
+    private static void checkFormat(byte[] sealed) {
+        if (sealed.length < OVERHEAD || sealed[0] != VERSION) {
+            throw new IllegalArgumentException("Not a sealed payload");
+        }
+    }
+
+    // Subkeys are XTEA encryptions of distinct counter blocks under the master key
+    private static byte[] expand(TeaKey master, int firstBlock, int blocks) {
+        ByteBuffer out = ByteBuffer.allocate(blocks * 8);
+        for (int i = 0; i < blocks; i++) {
+            out.putLong(XTEA.encryptBlock(0x53454C44, firstBlock + i, master));
+        }
+        return out.array();
+    }
+
+    private static TeaKey cipherKey(TeaKey master) {
+        byte[] raw = expand(master, 0, 2);
+        TeaKey key = TeaKey.of(raw);
+        Arrays.fill(raw, (byte) 0);
+        return key;
+    }
+
+    private static Mac mac(TeaKey master) {
+        byte[] raw = expand(master, 2, 4);
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(raw, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+}
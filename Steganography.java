@@ -1,131 +1,187 @@
 import javax.imageio.ImageIO;
-import javax.swing.*;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
-
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * File-level entry points used by the desktop application. All the work is
+ * done by the headless {@link LsbEmbedder} and {@link LsbExtractor}; any
+ * dialogs belong to the caller.
+ */
 public class Steganography {
 
+    // Deflates bands of rows on the common pool; never reconfigured, so safe to share
+    private static final PngEncoder ENCODER = PngEncoder.defaults().parallel();
+
     /**
-     * Hides the given message bytes inside the provided image file and
-     * prompts the user to save the stego image.
-     * 
+     * Hides the given message bytes inside the provided image file, behind
+     * a checksummed {@link StegoHeader}, and writes the stego image to the
+     * output file.
+     *
      * @param imageFile The original image file
      * @param message The message bytes to embed
-     * @return true if embedding and saving succeed
+     * @param outputFile Where to write the stego image (PNG)
      * @throws IOException if file read/write fails
+     * @throws IllegalArgumentException if the message is too large for the image
      */
-    public static boolean hideMessageWithSaveDialog(File imageFile, byte[] message) throws IOException {
-        BufferedImage image = ImageIO.read(imageFile);
-
-        // Convert image to 3BYTE_BGR if not already for easier manipulation
-        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
-            BufferedImage convertedImg = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            convertedImg.getGraphics().drawImage(image, 0, 0, null);
-            image = convertedImg;
-        }
-
-        // Prepare message: length (4 bytes) + message bytes
-        byte[] lengthBytes = intToByteArray(message.length);
-        byte[] fullMessage = new byte[lengthBytes.length + message.length];
-        System.arraycopy(lengthBytes, 0, fullMessage, 0, lengthBytes.length);
-        System.arraycopy(message, 0, fullMessage, lengthBytes.length, message.length);
-
-        int capacityBits = image.getWidth() * image.getHeight() * 3;
-        if (fullMessage.length * 8 > capacityBits) {
-            JOptionPane.showMessageDialog(null, "Message too large to fit in this image.", "Error", JOptionPane.ERROR_MESSAGE);
-            return false;
-        }
-
-        byte[] imgBytes = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-        // Embed message bits into the LSBs of image bytes
-        for (int i = 0; i < fullMessage.length * 8; i++) {
-            int byteIndex = i / 8;
-            int bitIndex = 7 - (i % 8);
-            int bit = (fullMessage[byteIndex] >> bitIndex) & 1;
-
-            imgBytes[i] = (byte)((imgBytes[i] & 0xFE) | bit);
-        }
+    public static void hideMessage(File imageFile, byte[] message, File outputFile) throws IOException {
+        hideMessage(imageFile, message, outputFile, ProgressListener.NONE);
+    }
 
-        // Prompt user to save the new image
-        JFileChooser saveChooser = new JFileChooser();
-        saveChooser.setDialogTitle("Save Stego Image As");
-        saveChooser.setSelectedFile(new File("stego_" + imageFile.getName()));
-        int userSelection = saveChooser.showSaveDialog(null);
+    /**
+     * Hides the message like {@link #hideMessage(File, byte[], File)} while
+     * reporting rows decoded plus rows encoded, out of twice the image
+     * height. Interrupting the calling thread aborts the decode or encode,
+     * removes the partial output and throws {@link InterruptedIOException}.
+     *
+     * @param imageFile The original image file
+     * @param message The message bytes to embed
+     * @param outputFile Where to write the stego image (PNG)
+     * @param progress Receives row progress on the calling thread
+     * @throws IOException if file read/write fails or the thread was interrupted
+     * @throws IllegalArgumentException if the message is too large for the image
+     */
+    public static void hideMessage(File imageFile, byte[] message, File outputFile, ProgressListener progress)
+            throws IOException {
+        hideMessage(imageFile, message, outputFile, StegoOptions.defaults().header(true), progress);
+    }
 
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File saveFile = saveChooser.getSelectedFile();
-            String formatName = getExtension(saveFile.getName());
-            if (!formatName.equalsIgnoreCase("png")) {
-                // Force PNG for lossless compression
-                saveFile = new File(saveFile.getAbsolutePath() + ".png");
-                formatName = "png";
-            }
-            ImageIO.write(image, formatName, saveFile);
-            return true;
+    /**
+     * Hides the message like {@link #hideMessage(File, byte[], File, ProgressListener)}
+     * with the given layout options, for example header flags describing the
+     * payload.
+     *
+     * @param imageFile The original image file
+     * @param message The message bytes to embed
+     * @param outputFile Where to write the stego image (PNG)
+     * @param options Layout options for the embedding
+     * @param progress Receives row progress on the calling thread
+     * @throws IOException if file read/write fails or the thread was interrupted
+     * @throws IllegalArgumentException if the message is too large for the image
+     */
+    public static void hideMessage(File imageFile, byte[] message, File outputFile, StegoOptions options,
+                                   ProgressListener progress) throws IOException {
+        BufferedImage image = readImage(imageFile, progress);
+        BufferedImage stego = image;
+        try {
+            LsbExtractor.checkInterrupted();
+            stego = LsbEmbedder.embed(image, message, options);
+            writePng(stego, outputFile, progress);
+        } catch (IOException e) {
+            Files.deleteIfExists(outputFile.toPath());
+            throw e;
+        } finally {
+            LsbEmbedder.release(image, stego);
         }
-
-        return false;
     }
 
     /**
-     * Extracts the hidden message bytes from the image file.
-     * 
+     * Extracts the hidden message bytes from the image file, decoding only
+     * the rows that hold the message.
+     *
      * @param imageFile The image file with hidden message
      * @return The extracted message bytes, or null if no message found
      * @throws IOException If file reading fails
      */
     public static byte[] extractMessageFromImage(File imageFile) throws IOException {
-        BufferedImage image = ImageIO.read(imageFile);
-
-        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
-            BufferedImage convertedImg = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            convertedImg.getGraphics().drawImage(image, 0, 0, null);
-            image = convertedImg;
-        }
-
-        byte[] imgBytes = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-        // Extract first 32 bits = message length
-        byte[] lengthBytes = new byte[4];
-        for (int i = 0; i < 32; i++) {
-            lengthBytes[i / 8] = (byte)((lengthBytes[i / 8] << 1) | (imgBytes[i] & 1));
-        }
-        int messageLength = byteArrayToInt(lengthBytes);
+        return LsbExtractor.extractLazy(imageFile.toPath());
+    }
 
-        if (messageLength <= 0 || messageLength > (imgBytes.length / 8)) {
-            // Probably no hidden message or corrupted
-            return null;
-        }
+    /**
+     * Extracts the hidden message like {@link #extractMessageFromImage(File)}
+     * while reporting rows decoded against rows needed. Interrupting the
+     * calling thread stops decoding with {@link InterruptedIOException}.
+     *
+     * @param imageFile The image file with hidden message
+     * @param progress Receives row progress on the calling thread
+     * @return The extracted message bytes, or null if no message found
+     * @throws IOException If file reading fails or the thread was interrupted
+     */
+    public static byte[] extractMessageFromImage(File imageFile, ProgressListener progress) throws IOException {
+        return LsbExtractor.extractLazy(imageFile.toPath(), false, progress);
+    }
 
-        byte[] message = new byte[messageLength];
+    /**
+     * Reads just the header of a stego image, decoding only its first rows.
+     *
+     * @param imageFile The image file with hidden message
+     * @return The header, or null for images without one (including the legacy layout)
+     * @throws IOException If file reading fails
+     */
+    public static StegoHeader readHeader(File imageFile) throws IOException {
+        return LsbExtractor.readHeader(imageFile.toPath(), false);
+    }
 
-        for (int i = 0; i < messageLength * 8; i++) {
-            int byteIndex = i / 8;
-            message[byteIndex] = (byte)((message[byteIndex] << 1) | (imgBytes[32 + i] & 1));
+    /**
+     * Returns the file a stego image should be saved to, forcing a .png
+     * extension for lossless output.
+     *
+     * @param file The file chosen by the user
+     * @return The same file, or one with ".png" appended
+     */
+    public static File toLosslessTarget(File file) {
+        if (!getExtension(file.getName()).equalsIgnoreCase("png")) {
+            return new File(file.getAbsolutePath() + ".png");
         }
-
-        return message;
+        return file;
     }
 
     // Helper methods
 
-    private static byte[] intToByteArray(int val) {
-        return new byte[]{
-                (byte)(val >>> 24),
-                (byte)(val >>> 16),
-                (byte)(val >>> 8),
-                (byte) val
-        };
+    // Decode through an ImageReader so rows can be reported and the read aborted
+    private static BufferedImage readImage(File file, ProgressListener progress) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported or unreadable image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                long height = reader.getHeight(0);
+                reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+                    @Override
+                    public void imageProgress(ImageReader source, float percentageDone) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            source.abort();
+                        }
+                        progress.progress((long) (height * percentageDone / 100), 2 * height);
+                    }
+
+                    @Override public void sequenceStarted(ImageReader source, int minIndex) { }
+                    @Override public void sequenceComplete(ImageReader source) { }
+                    @Override public void imageStarted(ImageReader source, int imageIndex) { }
+                    @Override public void imageComplete(ImageReader source) { }
+                    @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+                    @Override public void thumbnailProgress(ImageReader source, float percentageDone) { }
+                    @Override public void thumbnailComplete(ImageReader source) { }
+                    @Override public void readAborted(ImageReader source) { }
+                });
+                BufferedImage image;
+                try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.DECODE)) {
+                    image = reader.read(0, BufferPool.readParam(reader));
+                    span.done(StegoMetrics.pixelBytes(image));
+                }
+                LsbExtractor.checkInterrupted();
+                progress.progress(height, 2 * height);
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
     }
 
-    private static int byteArrayToInt(byte[] bytes) {
-        return ((bytes[0] & 0xFF) << 24) |
-                ((bytes[1] & 0xFF) << 16) |
-                ((bytes[2] & 0xFF) << 8) |
-                (bytes[3] & 0xFF);
+    // Encode with the parallel PngEncoder, reporting rows and stopping between them when interrupted
+    private static void writePng(BufferedImage image, File file, ProgressListener progress) throws IOException {
+        long height = image.getHeight();
+        ENCODER.write(image, file.toPath(), (done, total) -> progress.progress(height + done, 2 * height));
+        progress.progress(2 * height, 2 * height);
     }
 
     private static String getExtension(String filename) {
@@ -4,29 +4,57 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SteganographyApp {
 
     private final JFrame frame;
     private final JTextArea messageArea;
     private final JPasswordField passwordField;
+    private final JCheckBox compressCheckBox;
     private final JLabel filePathLabel;
-    private File selectedFile;
+    private List<File> selectedFiles = new ArrayList<>();
     private JComboBox<String> fileTypeComboBox;
 
+    // Background work: one task runs at a time, the rest wait in order
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private final DefaultListModel<String> queueModel = new DefaultListModel<>();
+    private final Deque<BackgroundTask<?>> pendingTasks = new ArrayDeque<>();
+    private BackgroundTask<?> runningTask;
+
     // Holds encrypted message bytes for in-memory decrypt demo
     private byte[] encryptedMessageBytes;
 
+    // Upper bound on extracted text, so a crafted compressed payload cannot exhaust the heap
+    private static final int MAX_MESSAGE_CHARS = 16 << 20;
+
+    // Derived keys for recently used passwords
+    private final KeyCache keyCache = new KeyCache(KeyDerivation.md5(), 8, Duration.ofMinutes(15));
+
+    // Sealed payloads written in this session share a salt, so their PBKDF2 key is derived once per password
+    private final KeyCache sealKeyCache = new KeyCache(SealedPayload.kdf(), 8, Duration.ofMinutes(15));
+    private final byte[] sealSalt = SealedPayload.newSalt();
+
     public SteganographyApp() {
         // Frame setup
         frame = new JFrame("🔐 Steganography & TEA Encryption Tool");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setSize(820, 700);
+        frame.setSize(820, 860);
         frame.setLayout(new BorderLayout(10, 10));
         frame.setLocationRelativeTo(null);
 
@@ -88,6 +116,11 @@ public class SteganographyApp {
         passwordField.setFont(new Font("Segoe UI", Font.PLAIN, 16));
         passwordPanel.add(passwordField, BorderLayout.CENTER);
 
+        compressCheckBox = new JCheckBox("Compress message before embedding", true);
+        compressCheckBox.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        compressCheckBox.setBackground(new Color(245, 245, 245));
+        passwordPanel.add(compressCheckBox, BorderLayout.SOUTH);
+
         inputPanel.add(passwordPanel);
 
         mainPanel.add(inputPanel);
@@ -134,23 +167,51 @@ public class SteganographyApp {
         buttonPanel.add(combinedExtractButton);
 
         mainPanel.add(buttonPanel);
+        mainPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+
+        // Progress, cancel and queued tasks
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 5));
+        statusPanel.setBackground(new Color(245, 245, 245));
+        statusPanel.setBorder(BorderFactory.createTitledBorder("Progress"));
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setString("Idle");
+        statusPanel.add(progressBar, BorderLayout.CENTER);
+
+        cancelButton = new JButton("⏹ Cancel");
+        cancelButton.setFocusPainted(false);
+        cancelButton.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(this::cancelTasks);
+        statusPanel.add(cancelButton, BorderLayout.EAST);
+
+        JList<String> queueList = new JList<>(queueModel);
+        queueList.setVisibleRowCount(3);
+        queueList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        statusPanel.add(new JScrollPane(queueList), BorderLayout.SOUTH);
+
+        mainPanel.add(statusPanel);
 
         // Add main panel to frame
         frame.add(mainPanel, BorderLayout.CENTER);
         frame.setVisible(true);
     }
 
-    // Select file with extension filter and update label
+    // Select one or more files with extension filter and update label
     private void selectFile(ActionEvent e) {
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Select an Image File");
+        fileChooser.setDialogTitle("Select Image Files");
         fileChooser.setAcceptAllFileFilterUsed(false);
+        fileChooser.setMultiSelectionEnabled(true);
         fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("PNG Images", "png"));
         fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("JPEG Images", "jpg", "jpeg"));
         int result = fileChooser.showOpenDialog(frame);
         if (result == JFileChooser.APPROVE_OPTION) {
-            selectedFile = fileChooser.getSelectedFile();
-            filePathLabel.setText(selectedFile.getName());
+            selectedFiles = new ArrayList<>(Arrays.asList(fileChooser.getSelectedFiles()));
+            filePathLabel.setText(selectedFiles.size() == 1
+                    ? selectedFiles.get(0).getName()
+                    : selectedFiles.size() + " files selected");
         }
     }
 
@@ -164,13 +225,18 @@ public class SteganographyApp {
             return;
         }
 
-        try {
-            byte[] key = createMD5Key(password);
-            encryptedMessageBytes = TEA.encryptWithPadding(message.getBytes(StandardCharsets.UTF_8), key);
-            showInfo("Message encrypted successfully and stored in memory.");
-        } catch (Exception ex) {
-            showError("Encryption failed: " + ex.getMessage());
-        }
+        submit(new BackgroundTask<byte[]>("Encrypt message", "Encryption failed: ") {
+            @Override
+            protected byte[] work() throws Exception {
+                return SealedPayload.seal(message.getBytes(StandardCharsets.UTF_8), sealKey(password), sealSalt);
+            }
+
+            @Override
+            protected void succeeded(byte[] encrypted) {
+                encryptedMessageBytes = encrypted;
+                showInfo("Message encrypted successfully and stored in memory.");
+            }
+        });
     }
 
     // Decrypt message from memory
@@ -185,56 +251,47 @@ public class SteganographyApp {
             return;
         }
 
-        try {
-            byte[] key = createMD5Key(password);
-            byte[] decrypted = TEA.decryptWithPadding(encryptedMessageBytes, key);
-            String decryptedText = new String(decrypted, StandardCharsets.UTF_8);
-            messageArea.setText(decryptedText);
-            showInfo("Message decrypted successfully!");
-        } catch (Exception ex) {
-            showError("Decryption failed: Possibly incorrect password or corrupted data.");
-        }
+        byte[] encrypted = encryptedMessageBytes;
+        submit(new BackgroundTask<String>("Decrypt message", null) {
+            @Override
+            protected String work() throws Exception {
+                return new String(SealedPayload.open(encrypted, openKey(password, encrypted)), StandardCharsets.UTF_8);
+            }
+
+            @Override
+            protected void succeeded(String decryptedText) {
+                messageArea.setText(decryptedText);
+                showInfo("Message decrypted successfully!");
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                showError("Decryption failed: Possibly incorrect password or corrupted data.");
+            }
+        });
     }
 
-    // Embed plaintext (no encryption) into selected image and save output file
+    // Embed plaintext (no encryption) into the selected images and save output files
     private void embedPlaintext(ActionEvent e) {
         if (!validateFileAndMessage()) return;
         String message = messageArea.getText().trim();
 
-        try {
-            boolean success = Steganography.hideMessageWithSaveDialog(selectedFile, message.getBytes(StandardCharsets.UTF_8));
-            if (success) {
-                showInfo("Plaintext message embedded and saved successfully!");
-            } else {
-                showError("Failed to embed message. Image may be too small.");
-            }
-        } catch (Exception ex) {
-            showError("Embedding failed: " + ex.getMessage());
-        }
+        List<File> targets = chooseSaveFiles();
+        if (targets == null) return;
+        submitEmbed(message, null, targets, "Plaintext message embedded and saved successfully!",
+                "Embedding failed: ");
     }
 
-    // Extract plaintext from selected image
+    // Extract plaintext from the selected images
     private void extractPlaintext(ActionEvent e) {
-        if (selectedFile == null) {
+        if (selectedFiles.isEmpty()) {
             showError("Please select an image file first.");
             return;
         }
-
-        try {
-            byte[] extracted = Steganography.extractMessageFromImage(selectedFile);
-            if (extracted == null) {
-                showError("No hidden message found or unsupported image.");
-                return;
-            }
-            String extractedText = new String(extracted, StandardCharsets.UTF_8);
-            messageArea.setText(extractedText);
-            showInfo("Plaintext message extracted successfully!");
-        } catch (Exception ex) {
-            showError("Extraction failed: " + ex.getMessage());
-        }
+        submitExtract(null, "Plaintext message extracted successfully!", "Extraction failed: ");
     }
 
-    // Encrypt and embed message, save output file
+    // Encrypt and embed message into the selected images, save output files
     private void embedEncryptedMessage(ActionEvent e) {
         if (!validateFileAndMessage()) return;
         String message = messageArea.getText().trim();
@@ -245,23 +302,15 @@ public class SteganographyApp {
             return;
         }
 
-        try {
-            byte[] key = createMD5Key(password);
-            byte[] encrypted = TEA.encryptWithPadding(message.getBytes(StandardCharsets.UTF_8), key);
-            boolean success = Steganography.hideMessageWithSaveDialog(selectedFile, encrypted);
-            if (success) {
-                showInfo("Message encrypted, embedded, and saved successfully!");
-            } else {
-                showError("Failed to embed message. Image may be too small.");
-            }
-        } catch (Exception ex) {
-            showError("Encryption or embedding failed: " + ex.getMessage());
-        }
+        List<File> targets = chooseSaveFiles();
+        if (targets == null) return;
+        submitEmbed(message, password, targets, "Message encrypted, embedded, and saved successfully!",
+                "Encryption or embedding failed: ");
     }
 
-    // Extract and decrypt message from image
+    // Extract and decrypt message from the selected images
     private void extractAndDecryptMessage(ActionEvent e) {
-        if (selectedFile == null) {
+        if (selectedFiles.isEmpty()) {
             showError("Please select an image file first.");
             return;
         }
@@ -270,25 +319,121 @@ public class SteganographyApp {
             showError("Password cannot be empty.");
             return;
         }
+        submitExtract(password, "Message extracted and decrypted successfully!",
+                "Extraction or decryption failed: Possibly incorrect password or corrupted data.");
+    }
+
+    // Queue an embed of the message into every selected file; password null embeds plaintext
+    private void submitEmbed(String message, String password, List<File> targets, String success, String failure) {
+        List<File> sources = new ArrayList<>(selectedFiles);
+        boolean compress = compressCheckBox.isSelected();
+        submit(new BackgroundTask<Void>(describe("Embed into", sources), failure) {
+            @Override
+            protected Void work() throws Exception {
+                byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+                int flags = 0;
+                if (compress) {
+                    byte[] packed = PayloadCompression.compress(payload, new DeflateCodec());
+                    if (packed != null) {
+                        payload = packed;
+                        flags |= StegoHeader.FLAG_COMPRESSED;
+                    }
+                }
+                if (password != null) {
+                    payload = SealedPayload.seal(payload, sealKey(password), sealSalt);
+                    flags |= StegoHeader.FLAG_SEALED;
+                }
+                StegoOptions options = StegoOptions.defaults().flags(flags);
+                for (int i = 0; i < sources.size(); i++) {
+                    Steganography.hideMessage(sources.get(i), payload, targets.get(i), options,
+                            fileProgress(i, sources.size()));
+                }
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                showInfo(success);
+            }
+        });
+    }
+
+    // Queue an extraction from every selected file; password null means plaintext
+    private void submitExtract(String password, String success, String failure) {
+        List<File> sources = new ArrayList<>(selectedFiles);
+        boolean decrypt = password != null;
+        submit(new BackgroundTask<String>(describe("Extract from", sources), decrypt ? null : failure) {
+            @Override
+            protected String work() throws Exception {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < sources.size(); i++) {
+                    File source = sources.get(i);
+                    byte[] extracted = Steganography.extractMessageFromImage(source, fileProgress(i, sources.size()));
+                    if (extracted == null) {
+                        throw new NoMessageException(source);
+                    }
+                    StegoHeader header = Steganography.readHeader(source);
+                    if (header != null && header.hasFlag(StegoHeader.FLAG_SEALED)) {
+                        if (!decrypt) {
+                            throw new IOException(source.getName() + " holds an encrypted message; enter its password");
+                        }
+                        // The tag is checked before anything is decrypted
+                        extracted = SealedPayload.open(extracted, openKey(password, extracted));
+                    } else if (decrypt) {
+                        extracted = TEA.decryptWithPadding(extracted, passwordKey(password));
+                    }
+                    if (sources.size() > 1) {
+                        text.append("=== ").append(source.getName()).append(" ===\n");
+                    }
+                    if (header != null && header.hasFlag(StegoHeader.FLAG_COMPRESSED)) {
+                        appendDecompressed(text, extracted);
+                    } else {
+                        text.append(new String(extracted, StandardCharsets.UTF_8));
+                    }
+                    if (sources.size() > 1) {
+                        text.append("\n\n");
+                    }
+                }
+                return text.toString();
+            }
 
-        try {
-            byte[] extracted = Steganography.extractMessageFromImage(selectedFile);
-            if (extracted == null) {
-                showError("No hidden message found or unsupported image.");
-                return;
+            @Override
+            protected void succeeded(String extractedText) {
+                messageArea.setText(extractedText);
+                showInfo(success);
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                if (cause instanceof NoMessageException) {
+                    showError(cause.getMessage());
+                } else if (decrypt) {
+                    showError(failure);
+                } else {
+                    super.failed(cause);
+                }
+            }
+        });
+    }
+
+    // Inflate a compressed message straight into the text, decoding UTF-8 as it streams
+    private static void appendDecompressed(StringBuilder text, byte[] compressed) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                PayloadCompression.decompress(new ByteArrayInputStream(compressed)), StandardCharsets.UTF_8)) {
+            char[] buf = new char[8192];
+            int limit = text.length() + MAX_MESSAGE_CHARS;
+            int n;
+            while ((n = reader.read(buf)) > 0) {
+                if (text.length() + n > limit) {
+                    throw new IOException("Decompressed message is too large");
+                }
+                text.append(buf, 0, n);
             }
-            byte[] key = createMD5Key(password);
-            byte[] decrypted = TEA.decryptWithPadding(extracted, key);
-            String decryptedText = new String(decrypted, StandardCharsets.UTF_8);
-            messageArea.setText(decryptedText);
-            showInfo("Message extracted and decrypted successfully!");
-        } catch (Exception ex) {
-            showError("Extraction or decryption failed: Possibly incorrect password or corrupted data.");
         }
     }
 
     private boolean validateFileAndMessage() {
-        if (selectedFile == null) {
+        if (selectedFiles.isEmpty()) {
             showError("Please select an image file first.");
             return false;
         }
@@ -299,11 +444,175 @@ public class SteganographyApp {
         return true;
     }
 
-    // Helper: Create MD5 hash key from password (128-bit)
-    private byte[] createMD5Key(String password) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        md.update(password.getBytes(StandardCharsets.UTF_8));
-        return Arrays.copyOf(md.digest(), 16);
+    // Helper: Prompt for where to save the stego images, null if cancelled.
+    // One file gets a save dialog; several go to a chosen folder as stego_<name>.png
+    private List<File> chooseSaveFiles() {
+        JFileChooser saveChooser = new JFileChooser();
+        if (selectedFiles.size() == 1) {
+            saveChooser.setDialogTitle("Save Stego Image As");
+            saveChooser.setSelectedFile(new File("stego_" + selectedFiles.get(0).getName()));
+            if (saveChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                return null;
+            }
+            return List.of(Steganography.toLosslessTarget(saveChooser.getSelectedFile()));
+        }
+        saveChooser.setDialogTitle("Save Stego Images To Folder");
+        saveChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (saveChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        File dir = saveChooser.getSelectedFile();
+        List<File> targets = new ArrayList<>();
+        for (File source : selectedFiles) {
+            targets.add(Steganography.toLosslessTarget(new File(dir, "stego_" + source.getName())));
+        }
+        return targets;
+    }
+
+    private static String describe(String action, List<File> files) {
+        return files.size() == 1
+                ? action + " " + files.get(0).getName()
+                : action + " " + files.size() + " files";
+    }
+
+    // Helper: MD5 key from password (128-bit), derived once per password and cached
+    private TeaKey passwordKey(String password) throws GeneralSecurityException {
+        return keyCache.get(password.toCharArray(), null);
+    }
+
+    // Helper: PBKDF2 master key for sealing under this session's salt
+    private TeaKey sealKey(String password) throws GeneralSecurityException {
+        return sealKeyCache.get(password.toCharArray(), sealSalt);
+    }
+
+    // Helper: PBKDF2 master key for opening a sealed payload with its own salt
+    private TeaKey openKey(String password, byte[] sealed) throws GeneralSecurityException {
+        return sealKeyCache.get(password.toCharArray(), SealedPayload.salt(sealed));
+    }
+
+    // Queue a task and start it if nothing else is running
+    private void submit(BackgroundTask<?> task) {
+        pendingTasks.add(task);
+        queueModel.addElement(task.label);
+        if (runningTask == null) {
+            startNextTask();
+        }
+    }
+
+    private void startNextTask() {
+        runningTask = pendingTasks.poll();
+        if (runningTask == null) {
+            progressBar.setValue(0);
+            progressBar.setString("Idle");
+            cancelButton.setEnabled(false);
+            return;
+        }
+        progressBar.setValue(0);
+        progressBar.setString(runningTask.label);
+        cancelButton.setEnabled(true);
+        runningTask.execute();
+    }
+
+    // Cancel interrupts the running task and drops everything queued behind it
+    private void cancelTasks(ActionEvent e) {
+        while (queueModel.size() > 1) {
+            queueModel.remove(queueModel.size() - 1);
+        }
+        pendingTasks.clear();
+        if (runningTask != null && runningTask.cancel(true)) {
+            progressBar.setString("Cancelling " + runningTask.label);
+            cancelButton.setEnabled(false);
+        }
+    }
+
+    /**
+     * Work that runs off the Event Dispatch Thread. The background part may
+     * only touch the values captured when the task was created; results and
+     * errors are shown on the EDT. The next queued task starts once both the
+     * result has been shown and the background part has returned, which
+     * after a cancel can be well after {@link #done()}.
+     */
+    private abstract class BackgroundTask<T> extends SwingWorker<T, Void> {
+        final String label;
+        private final String failurePrefix;
+        // Claimed by doInBackground, or by done() for a task cancelled before it began
+        private final AtomicBoolean started = new AtomicBoolean();
+        // EDT only: set by done() and once doInBackground has returned
+        private boolean reported;
+        private boolean returned;
+
+        BackgroundTask(String label, String failurePrefix) {
+            this.label = label;
+            this.failurePrefix = failurePrefix;
+            addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    progressBar.setValue((Integer) event.getNewValue());
+                }
+            });
+        }
+
+        protected abstract T work() throws Exception;
+
+        protected abstract void succeeded(T result);
+
+        protected void failed(Throwable cause) {
+            showError(failurePrefix + cause.getMessage());
+        }
+
+        // Map file 'index' of 'count' onto its share of the progress bar
+        protected ProgressListener fileProgress(int index, int count) {
+            return (done, total) -> setProgress((int) Math.min(100,
+                    (index + (double) done / Math.max(total, 1)) * 100 / count));
+        }
+
+        @Override
+        protected T doInBackground() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return work();
+            } finally {
+                SwingUtilities.invokeLater(() -> {
+                    returned = true;
+                    finish();
+                });
+            }
+        }
+
+        @Override
+        protected void done() {
+            queueModel.removeElement(label);
+            if (started.compareAndSet(false, true)) {
+                returned = true;
+            }
+            try {
+                if (!isCancelled()) {
+                    succeeded(get());
+                }
+            } catch (ExecutionException ex) {
+                failed(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                reported = true;
+                finish();
+            }
+        }
+
+        // A cancelled task reports at once but may still be decoding or encoding
+        private void finish() {
+            if (reported && returned) {
+                startNextTask();
+            }
+        }
+    }
+
+    // Raised when an image holds no message, so the user sees the original wording
+    private static final class NoMessageException extends Exception {
+        NoMessageException(File file) {
+            super("No hidden message found or unsupported image: " + file.getName());
+        }
     }
 
     // Helper: Show error dialog
@@ -316,7 +625,22 @@ public class SteganographyApp {
         JOptionPane.showMessageDialog(frame, message, "✅ Success", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // "batch ..." runs headless; see BatchRunner for the options
+        if (args.length > 0 && args[0].equals("batch")) {
+            BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "shard embed|extract ..." spreads one payload over several images; see MultiCarrier
+        if (args.length > 0 && args[0].equals("shard")) {
+            MultiCarrier.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "serve ..." starts the local HTTP service; see StegoServer
+        if (args.length > 0 && args[0].equals("serve")) {
+            StegoServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(SteganographyApp::new);
     }
 }
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Self-describing header stored at the start of the carrier, one bit per
+ * sample. It records how the payload was laid out, so the extractor needs
+ * no options, and carries a checksum so a carrier that merely looks like it
+ * holds a message is rejected without decrypting anything:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     2  magic "SG"
+ *      2     1  version (2)
+ *      3     1  mode: 1 = fixed bits per channel, 2 = adaptive
+ *      4     2  bits per channel, one nibble per sample slot in pixel order
+ *      6     1  adaptive variance threshold
+ *      7     1  flags, see FLAG_*
+ *      8     4  payload length in bytes, big-endian
+ *     12     4  CRC32C of the payload, big-endian
+ * </pre>
+ *
+ * Version 1 headers end after the length, with the flags byte reserved as 0,
+ * and are still read. The legacy layout starts with a plain 32-bit length,
+ * which can never begin with the magic for an image that fits in memory, so
+ * the two can be told apart from the first 16 samples and a non-stego image
+ * is usually turned away after its first few dozen samples.
+ */
+public final class StegoHeader {
+
+    public static final int MAGIC = 0x5347;
+    public static final int VERSION = 2;
+    public static final int MODE_FIXED = 1;
+    public static final int MODE_ADAPTIVE = 2;
+
+    /** The payload was encrypted before embedding. */
+    public static final int FLAG_ENCRYPTED = 1;
+    /** The payload was compressed before any encryption, see {@link PayloadCompression}. */
+    public static final int FLAG_COMPRESSED = 2;
+    /** The payload is one shard of a {@link MultiCarrier} set. */
+    public static final int FLAG_SHARD = 4;
+    /** The payload is a {@link SealedPayload}: XTEA-CTR with an HMAC tag, keyed from a salted password. */
+    public static final int FLAG_SEALED = 8;
+
+    /** Header size in bytes. */
+    public static final int BYTES = 16;
+    /** Samples the header occupies at one bit each. */
+    public static final int SAMPLES = BYTES * 8;
+    /** Leading bytes that identify a header and its version. */
+    public static final int PREFIX_BYTES = 4;
+
+    private static final int V1_BYTES = 12;
+
+    public final int version;
+    public final int mode;
+    public final int[] channelBits;
+    public final int threshold;
+    public final int flags;
+    public final int length;
+    public final int crc;
+
+    /**
+     * @param mode {@link #MODE_FIXED} or {@link #MODE_ADAPTIVE}
+     * @param channelBits Bits per sample slot, 0 to 4, at most four slots
+     * @param threshold Adaptive variance threshold, 1 to 255; ignored in fixed mode
+     * @param flags Combination of the FLAG_* bits
+     * @param payload The payload, for its length and checksum
+     */
+    public StegoHeader(int mode, int[] channelBits, int threshold, int flags, byte[] payload) {
+        this(VERSION, mode, channelBits, threshold, flags, payload.length, checksum(payload, 0, payload.length));
+    }
+
+    private StegoHeader(int version, int mode, int[] channelBits, int threshold, int flags, int length, int crc) {
+        if (mode != MODE_FIXED && mode != MODE_ADAPTIVE) {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        if (channelBits.length == 0 || channelBits.length > 4) {
+            throw new IllegalArgumentException("One to four channels");
+        }
+        for (int bits : channelBits) {
+            if (bits < 0 || bits > 4) {
+                throw new IllegalArgumentException("Bits per channel must be 0 to 4");
+            }
+        }
+        if (mode == MODE_ADAPTIVE && (threshold < 1 || threshold > 255)) {
+            throw new IllegalArgumentException("Threshold must be 1 to 255");
+        }
+        if ((flags & ~0xFF) != 0) {
+            throw new IllegalArgumentException("Flags must fit in a byte");
+        }
+        this.version = version;
+        this.mode = mode;
+        this.channelBits = channelBits.clone();
+        this.threshold = mode == MODE_ADAPTIVE ? threshold : 0;
+        this.flags = flags;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * @param samplesPerPixel Sample slots per pixel of the carrier
+     * @param flags Combination of the FLAG_* bits
+     * @param payload The payload, for its length and checksum
+     * @return A header for the plain one-bit-per-sample layout
+     */
+    public static StegoHeader singleBit(int samplesPerPixel, int flags, byte[] payload) {
+        int[] bits = new int[samplesPerPixel];
+        Arrays.fill(bits, 1);
+        return new StegoHeader(MODE_FIXED, bits, 0, flags, payload);
+    }
+
+    /** @return The serialized header */
+    public byte[] toBytes() {
+        byte[] b = new byte[size()];
+        b[0] = (byte) (MAGIC >>> 8);
+        b[1] = (byte) MAGIC;
+        b[2] = (byte) version;
+        b[3] = (byte) mode;
+        int nibbles = 0;
+        for (int i = 0; i < 4; i++) {
+            nibbles = (nibbles << 4) | (i < channelBits.length ? channelBits[i] : 0);
+        }
+        b[4] = (byte) (nibbles >>> 8);
+        b[5] = (byte) nibbles;
+        b[6] = (byte) threshold;
+        b[7] = (byte) flags;
+        TEA.intToBytes(length, b, 8);
+        if (version >= 2) {
+            TEA.intToBytes(crc, b, 12);
+        }
+        return b;
+    }
+
+    /**
+     * Checks the leading bytes of a carrier. Only the first
+     * {@link #PREFIX_BYTES} are looked at.
+     * @param prefix Leading payload bytes of the carrier
+     * @return The full header size in bytes, 0 if the carrier has no header
+     *         (a legacy length prefix), or -1 for an unknown header version
+     */
+    public static int size(byte[] prefix) {
+        if (((prefix[0] & 0xFF) << 8 | (prefix[1] & 0xFF)) != MAGIC) {
+            return 0;
+        }
+        switch (prefix[2]) {
+            case 1:
+                return V1_BYTES;
+            case 2:
+                return BYTES;
+            default:
+                return -1;
+        }
+    }
+
+    /** @return Size of this header in bytes */
+    public int size() {
+        return version == 1 ? V1_BYTES : BYTES;
+    }
+
+    /** @return First sample after the header, where the payload starts */
+    public int payloadSample() {
+        return size() * 8;
+    }
+
+    /**
+     * @param b Serialized header bytes
+     * @param samplesPerPixel Slots per pixel in the carrier being read
+     * @return The header, or null if the bytes do not hold a valid one
+     */
+    public static StegoHeader parse(byte[] b, int samplesPerPixel) {
+        int size = b.length >= PREFIX_BYTES ? size(b) : 0;
+        if (size <= 0 || b.length < size) {
+            return null;
+        }
+        int version = b[2];
+        int flags = b[7] & 0xFF;
+        if (version == 1 && flags != 0) {
+            return null;
+        }
+        int nibbles = (b[4] & 0xFF) << 8 | (b[5] & 0xFF);
+        int[] channelBits = new int[Math.min(4, samplesPerPixel)];
+        boolean any = false;
+        for (int i = 0; i < 4; i++) {
+            int bits = (nibbles >>> (12 - 4 * i)) & 0xF;
+            if (i < channelBits.length) {
+                channelBits[i] = bits;
+                any |= bits > 0;
+            } else if (bits != 0) {
+                return null;
+            }
+        }
+        int length = TEA.bytesToInt(b, 8);
+        int crc = version >= 2 ? TEA.bytesToInt(b, 12) : 0;
+        try {
+            return any && length > 0 ? new StegoHeader(version, b[3], channelBits, b[6] & 0xFF, flags, length, crc) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param firstWord The first 32 sample LSBs read as a big-endian int
+     * @return Whether the carrier starts with a header rather than a legacy length
+     */
+    public static boolean hasMagic(int firstWord) {
+        return firstWord >>> 16 == MAGIC;
+    }
+
+    /** @return Whether the payload uses the plain one-bit-per-sample layout */
+    public boolean isSingleBit() {
+        if (mode != MODE_FIXED) {
+            return false;
+        }
+        for (int bits : channelBits) {
+            if (bits != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param flag One of the FLAG_* bits
+     * @return Whether the flag is set
+     */
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * @param payload Extracted payload
+     * @return Whether it matches the recorded checksum; version 1 headers have none
+     */
+    public boolean matches(byte[] payload) {
+        return version < 2 || checksum(payload, 0, payload.length) == crc;
+    }
+
+    /**
+     * @param data Bytes to checksum
+     * @param off First byte
+     * @param len Number of bytes
+     * @return The CRC32C of the range
+     */
+    public static int checksum(byte[] data, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,309 @@
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.EventType;
+
+/**
+ * Per-phase counters, bytes processed and latency histograms for embedding
+ * and extraction, plus a {@link StegoPhaseEvent} for JFR. Code being
+ * measured wraps each phase in a span:
+ *
+ * <pre>
+ * try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.ENCODE)) {
+ *     long n = write(...);
+ *     span.done(n);
+ * }
+ * </pre>
+ *
+ * A span closed without {@link Span#done} counts as an error. When neither
+ * metrics nor the JFR event are enabled, {@link #start} returns a shared
+ * no-op span, so the cost is a volatile read and a flag check.
+ *
+ * Metrics are off unless {@code -Dstego.metrics=true} is set or
+ * {@link #enable} is called.
+ */
+public class StegoMetrics {
+
+    /** Pipeline phases that are timed separately. */
+    public enum Phase {
+        /** Image file to pixels. */
+        DECODE,
+        /** Copying an unsupported raster layout to BGR. */
+        CONVERT,
+        COMPRESS,
+        DECOMPRESS,
+        ENCRYPT,
+        DECRYPT,
+        /** Writing payload bits into the carrier. */
+        EMBED,
+        /** Reading payload bits, including any rows decoded on the way. */
+        EXTRACT,
+        /** Pixels to image file. */
+        ENCODE,
+        /** One {@link StegoServer} request, from queueing to the last response byte. */
+        REQUEST
+    }
+
+    private static final EventType EVENT = EventType.getEventType(StegoPhaseEvent.class);
+    private static final Stats[] STATS = new Stats[Phase.values().length];
+    private static volatile boolean enabled = Boolean.getBoolean("stego.metrics");
+    private static ScheduledExecutorService scheduler;
+
+    static {
+        for (int i = 0; i < STATS.length; i++) {
+            STATS[i] = new Stats();
+        }
+    }
+
+    /**
+     * @param on Whether to record counters and histograms
+     */
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    /** @return Whether counters and histograms are being recorded */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a phase.
+     * @param phase Phase being timed
+     * @return A span to close when the phase ends
+     */
+    public static Span start(Phase phase) {
+        boolean metrics = enabled;
+        if (!metrics && !EVENT.isEnabled()) {
+            return Span.NOOP;
+        }
+        return new Span(phase, metrics);
+    }
+
+    /** Clears all counters and histograms. */
+    public static void reset() {
+        for (Stats stats : STATS) {
+            stats.reset();
+        }
+    }
+
+    /** @return A snapshot of every phase that has recorded anything */
+    public static List<PhaseSnapshot> snapshot() {
+        List<PhaseSnapshot> list = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            PhaseSnapshot s = STATS[phase.ordinal()].snapshot(phase);
+            if (s.count + s.errors > 0) {
+                list.add(s);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Hands the current snapshot to an exporter on the calling thread.
+     * @param exporter Destination
+     */
+    public static void export(MetricsExporter exporter) {
+        exporter.export(snapshot());
+    }
+
+    /**
+     * Exports snapshots periodically on a shared daemon thread.
+     * @param exporter Destination
+     * @param period Time between exports
+     * @return Handle for cancelling the schedule
+     */
+    public static synchronized ScheduledFuture<?> schedule(MetricsExporter exporter, Duration period) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "stego-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        long nanos = period.toNanos();
+        return scheduler.scheduleAtFixedRate(() -> export(exporter), nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Size of the decoded pixels, the byte count reported for DECODE and CONVERT
+    static long pixelBytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * image.getSampleModel().getNumBands();
+    }
+
+    /** Times one phase; not thread-safe, close on the thread that started it. */
+    public static final class Span implements AutoCloseable {
+        static final Span NOOP = new Span(null, false);
+
+        private final Phase phase;
+        private final boolean metrics;
+        private final long started;
+        private final StegoPhaseEvent event;
+        private long bytes = -1;
+
+        private Span(Phase phase, boolean metrics) {
+            this.phase = phase;
+            this.metrics = metrics;
+            if (phase == null) {
+                this.started = 0;
+                this.event = null;
+                return;
+            }
+            if (EVENT.isEnabled()) {
+                this.event = new StegoPhaseEvent();
+                event.begin();
+            } else {
+                this.event = null;
+            }
+            this.started = metrics ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Marks the phase as successful.
+         * @param bytes Bytes the phase processed
+         */
+        public void done(long bytes) {
+            this.bytes = Math.max(0, bytes);
+        }
+
+        @Override
+        public void close() {
+            if (phase == null) {
+                return;
+            }
+            boolean failed = bytes < 0;
+            if (metrics) {
+                STATS[phase.ordinal()].record(System.nanoTime() - started, failed ? 0 : bytes, failed);
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.phase = phase.name();
+                    event.bytes = failed ? 0 : bytes;
+                    event.failed = failed;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /** Totals and latency percentiles of one phase. */
+    public static final class PhaseSnapshot {
+        public final Phase phase;
+        public final long count;
+        public final long errors;
+        public final long bytes;
+        public final long totalNanos;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        PhaseSnapshot(Phase phase, long count, long errors, long bytes, long totalNanos,
+                      long p50Nanos, long p99Nanos, long maxNanos) {
+            this.phase = phase;
+            this.count = count;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /** @return Mean latency of successful runs */
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+    }
+
+    // Lock-free totals plus a log-linear latency histogram: 8 buckets per power of two, within 12.5%
+    private static final class Stats {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+
+        void record(long elapsed, long processed, boolean failed) {
+            if (failed) {
+                errors.increment();
+                return;
+            }
+            count.increment();
+            bytes.add(processed);
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+            buckets.incrementAndGet(bucket(Math.max(0, elapsed)));
+        }
+
+        void reset() {
+            count.reset();
+            errors.reset();
+            bytes.reset();
+            nanos.reset();
+            max.reset();
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        PhaseSnapshot snapshot(Phase phase) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long slowest = max.get();
+            return new PhaseSnapshot(phase, count.sum(), errors.sum(), bytes.sum(), nanos.sum(),
+                    Math.min(slowest, percentile(counts, total, 0.50)),
+                    Math.min(slowest, percentile(counts, total, 0.99)), slowest);
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        // Upper bound of the bucket, so percentiles err on the slow side
+        private static long upperBound(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int exp = bucket / SUB + SUB_BITS - 1;
+            int sub = bucket % SUB;
+            return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        private static long percentile(long[] counts, long total, double q) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tuning knobs shared by {@link LsbEmbedder} and {@link LsbExtractor}. The
+ * defaults reproduce the original behaviour: colour channels only,
+ * single-threaded, legacy length prefix. Extraction must use the same
+ * alpha and scatter options as the embedding did; layouts behind a
+ * {@link StegoHeader} are detected.
+ */
+public class StegoOptions {
+
+    /** Payload bytes below which parallel mode stays sequential. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 256 * 1024;
+
+    private boolean useAlpha;
+    private ForkJoinPool pool;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private TeaKey scatterKey;
+    private int[] channelBits;
+    private int adaptiveThreshold;
+    private boolean header;
+    private int flags;
+
+    /** @return A fresh set of default options */
+    public static StegoOptions defaults() {
+        return new StegoOptions();
+    }
+
+    /**
+     * @param useAlpha Whether the alpha plane, if any, carries payload bits too
+     * @return this
+     */
+    public StegoOptions useAlpha(boolean useAlpha) {
+        this.useAlpha = useAlpha;
+        return this;
+    }
+
+    /**
+     * Splits the bit packing into stripes run on the given pool. The output
+     * is identical to the sequential path.
+     * @param pool Pool to run stripes on, or null for sequential
+     * @return this
+     */
+    public StegoOptions parallel(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Shortcut for {@link #parallel(ForkJoinPool)} with the common pool.
+     * @return this
+     */
+    public StegoOptions parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bytes Payload size below which work stays on the calling thread;
+     *              also the smallest stripe handed to the pool
+     * @return this
+     */
+    public StegoOptions parallelThreshold(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        this.parallelThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Spreads the payload bits over the whole carrier in a key-dependent
+     * order instead of filling samples from the top. Extraction needs the
+     * same key. Scattered packing always runs on the calling thread.
+     * @param key Key seeding the sample permutation, or null for the sequential layout
+     * @return this
+     * @see SamplePermutation
+     */
+    public StegoOptions scatter(TeaKey key) {
+        this.scatterKey = key;
+        return this;
+    }
+
+    /**
+     * Embeds {@code bits} LSBs in every sample instead of one, behind a
+     * {@link StegoHeader} the extractor reads on its own.
+     * @param bits Bits per sample, 1 to 4
+     * @return this
+     * @see MultiBitLsb
+     */
+    public StegoOptions bitsPerChannel(int bits) {
+        if (bits < 1 || bits > 4) {
+            throw new IllegalArgumentException("Bits per channel must be 1 to 4");
+        }
+        this.channelBits = new int[] {bits, bits, bits, bits};
+        return this;
+    }
+
+    /**
+     * Sets the bits carried by each sample slot of a pixel, in carrier order
+     * (B, G, R, or A, B, G, R with alpha). A slot set to 0 is left untouched.
+     * @param bits Bits per slot, 0 to 4 each
+     * @return this
+     * @see MultiBitLsb
+     */
+    public StegoOptions channelBits(int... bits) {
+        if (bits.length == 0 || bits.length > 4) {
+            throw new IllegalArgumentException("One to four channels");
+        }
+        boolean any = false;
+        for (int b : bits) {
+            if (b < 0 || b > 4) {
+                throw new IllegalArgumentException("Bits per channel must be 0 to 4");
+            }
+            any |= b > 0;
+        }
+        if (!any) {
+            throw new IllegalArgumentException("At least one channel must carry bits");
+        }
+        this.channelBits = bits.clone();
+        return this;
+    }
+
+    /**
+     * Varies the bits per sample with local texture: smooth 4x4 blocks carry
+     * one bit, busier ones up to the per-channel setting (4 if none was
+     * given). Blocks whose variance is below {@code threshold} count as
+     * smooth; each further step of 4x the threshold adds a bit.
+     * @param threshold Variance threshold, 1 to 255, or 0 for fixed bits
+     * @return this
+     */
+    public StegoOptions adaptive(int threshold) {
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("Threshold must be 0 to 255");
+        }
+        this.adaptiveThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Writes a {@link StegoHeader} with a payload checksum ahead of a plain
+     * one-bit payload instead of the legacy length prefix. Layouts with more
+     * bits per channel always get one.
+     * @param header Whether to write a header
+     * @return this
+     */
+    public StegoOptions header(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * @param flags StegoHeader FLAG_* bits to record; implies {@link #header(boolean)}
+     * @return this
+     */
+    public StegoOptions flags(int flags) {
+        if ((flags & ~0xFF) != 0) {
+            throw new IllegalArgumentException("Flags must fit in a byte");
+        }
+        this.flags = flags;
+        this.header = true;
+        return this;
+    }
+
+    public boolean useAlpha() {
+        return useAlpha;
+    }
+
+    /** @return The pool for parallel stripes, or null when sequential */
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    public int parallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /** @return The key for scattered embedding, or null when sequential */
+    public TeaKey scatterKey() {
+        return scatterKey;
+    }
+
+    /**
+     * @param samplesPerPixel Sample slots per pixel of the carrier
+     * @param payload The payload, for its length and checksum
+     * @return The header to write, or null for the legacy length prefix
+     */
+    public StegoHeader header(int samplesPerPixel, byte[] payload) {
+        if (channelBits == null && adaptiveThreshold == 0) {
+            return header ? StegoHeader.singleBit(samplesPerPixel, flags, payload) : null;
+        }
+        int[] bits = new int[samplesPerPixel];
+        for (int i = 0; i < samplesPerPixel; i++) {
+            bits[i] = channelBits == null ? 4 : i < channelBits.length ? channelBits[i] : 0;
+        }
+        int mode = adaptiveThreshold > 0 ? StegoHeader.MODE_ADAPTIVE : StegoHeader.MODE_FIXED;
+        return new StegoHeader(mode, bits, adaptiveThreshold, flags, payload);
+    }
+
+    /** @return The adaptive variance threshold, or 0 for fixed bits per channel */
+    public int adaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+}
@@ -0,0 +1,30 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event emitted by {@link StegoMetrics} for every timed phase while a
+ * recording has it enabled, independently of whether in-process metrics are
+ * on. Enable with {@code -XX:StartFlightRecording} and the
+ * {@code steganography.Phase} event in the recording settings.
+ */
+@Name("steganography.Phase")
+@Label("Steganography Phase")
+@Category("Steganography")
+@Description("One decode, convert, crypto, compression, bit-packing or encode step")
+@StackTrace(false)
+public class StegoPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,424 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import javax.crypto.AEADBadTagException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded HTTP server so other services can embed and extract without
+ * starting a JVM per image. Keys stay in a {@link KeyCache} between
+ * requests, connections are kept alive, and request bodies are decoded
+ * straight from the socket.
+ *
+ * <pre>
+ * POST /embed[?compress=deflate|none]   body: payload then carrier image; returns a PNG stego image
+ * POST /extract                         body: stego image; returns the payload
+ * POST /verify                          body: payload then stego image; 200 if it matches, 409 if not
+ * GET  /stats                           phase and request metrics as text
+ * </pre>
+ *
+ * {@code X-Payload-Length} gives the size of a leading payload and
+ * {@code X-Stego-Password}, when present, seals or opens it as a
+ * {@link SealedPayload}, like the desktop app; older TEA payloads still
+ * decrypt. Requests run on a fixed pool of
+ * workers behind a bounded queue; when the queue is full the request is
+ * answered at once with 503 so callers back off instead of piling up.
+ */
+public class StegoServer {
+
+    /** Default largest payload accepted by /embed and /verify. */
+    public static final int DEFAULT_MAX_PAYLOAD = 64 << 20;
+
+    /** Default largest carrier accepted, about 100 MB once decoded to 24-bit pixels. */
+    public static final long DEFAULT_MAX_PIXELS = 32L << 20;
+
+    private static final String PAYLOAD_LENGTH = "X-Payload-Length";
+    private static final String PASSWORD = "X-Stego-Password";
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java SteganographyApp serve [options]",
+            "  --port N        listen port, default 8765",
+            "  --bind ADDR     listen address, default loopback",
+            "  --threads N     worker threads, default available processors",
+            "  --queue N       requests waiting for a worker before 503, default 4 per worker",
+            "  --max-pixels N  largest image accepted before 413, default " + DEFAULT_MAX_PIXELS);
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final KeyCache keys = new KeyCache(KeyDerivation.md5(), 64, Duration.ofMinutes(15));
+    // One salt per server run, so repeat callers with the same password skip PBKDF2
+    private final KeyCache sealKeys = new KeyCache(SealedPayload.kdf(), 64, Duration.ofMinutes(15));
+    private final byte[] sealSalt = SealedPayload.newSalt();
+    private final PngEncoder encoder = PngEncoder.defaults();
+    private final int maxPayload;
+    private final long maxPixels;
+    private final LongAdder rejected = new LongAdder();
+    private final long started = System.nanoTime();
+
+    /**
+     * Binds the server; call {@link #start} to accept requests.
+     * @param address Listen address; port 0 picks a free port
+     * @param threads Worker threads
+     * @param queue Requests that may wait for a worker
+     * @param maxPayload Largest payload accepted, in bytes
+     * @param maxPixels Largest image accepted, in pixels; checked against the
+     *                  image header before anything is decoded
+     * @throws IOException if the address cannot be bound
+     */
+    public StegoServer(InetSocketAddress address, int threads, int queue, int maxPayload, long maxPixels)
+            throws IOException {
+        if (threads < 1 || queue < 0 || maxPayload < 1 || maxPixels < 1) {
+            throw new IllegalArgumentException("Threads and size limits must be positive, queue non-negative");
+        }
+        AtomicInteger ids = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queue == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queue),
+                r -> new Thread(r, "stego-http-" + ids.incrementAndGet()));
+        this.maxPayload = maxPayload;
+        this.maxPixels = maxPixels;
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/embed", e -> dispatch(e, "POST", this::embed));
+        server.createContext("/extract", e -> dispatch(e, "POST", this::extract));
+        server.createContext("/verify", e -> dispatch(e, "POST", this::verify));
+        server.createContext("/stats", e -> dispatch(e, "GET", this::stats));
+        // Handlers only queue work, so the dispatcher thread runs them directly
+        server.setExecutor(null);
+    }
+
+    /** Starts accepting requests and turns on {@link StegoMetrics}. */
+    public void start() {
+        StegoMetrics.enable(true);
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits for running ones to finish.
+     * @param grace How long to wait for in-flight requests
+     */
+    public void stop(Duration grace) {
+        server.stop(0);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(grace.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /** @return The bound port */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        void handle(HttpExchange exchange) throws IOException, GeneralSecurityException;
+    }
+
+    // Runs on the dispatcher thread: hand the exchange to a worker or refuse it
+    private void dispatch(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        if (!exchange.getRequestMethod().equals(method)) {
+            exchange.getResponseHeaders().set("Allow", method);
+            send(exchange, 405, "Use " + method);
+            return;
+        }
+        try {
+            workers.execute(() -> run(exchange, endpoint));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 503, "Busy, try again");
+        }
+    }
+
+    private void run(HttpExchange exchange, Endpoint endpoint) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.REQUEST)) {
+            endpoint.handle(exchange);
+            if (exchange.getResponseCode() < 400) {
+                span.done(requestBytes(exchange));
+            }
+        } catch (LsbEmbedder.TooLargeException e) {
+            sendQuietly(exchange, 413, e.getMessage());
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable images, payloads that do not fit, unknown codecs
+            sendQuietly(exchange, 400, e.getMessage());
+        } catch (GeneralSecurityException e) {
+            sendQuietly(exchange, 500, "Key derivation failed");
+        } catch (RuntimeException e) {
+            sendQuietly(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void embed(HttpExchange exchange) throws IOException, GeneralSecurityException {
+        InputStream body = exchange.getRequestBody();
+        byte[] payload = readPayload(exchange, body);
+        if (payload == null) {
+            return;
+        }
+        int flags = 0;
+        String compress = query(exchange).getOrDefault("compress", "deflate");
+        if (!compress.equals("none")) {
+            byte[] packed = PayloadCompression.compress(payload, PayloadCompression.forName(compress));
+            if (packed != null) {
+                payload = packed;
+                flags |= StegoHeader.FLAG_COMPRESSED;
+            }
+        }
+        char[] password = password(exchange);
+        if (password != null) {
+            payload = SealedPayload.seal(payload, sealKeys.get(password, sealSalt), sealSalt);
+            flags |= StegoHeader.FLAG_SEALED;
+        }
+        BufferedImage image = LsbEmbedder.read(body, maxPixels);
+        BufferedImage stego = image;
+        try {
+            stego = LsbEmbedder.embed(image, payload, StegoOptions.defaults().flags(flags));
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                encoder.write(stego, out);
+            }
+        } finally {
+            LsbEmbedder.release(image, stego);
+        }
+    }
+
+    private void extract(HttpExchange exchange) throws IOException, GeneralSecurityException {
+        byte[] payload = extractPayload(exchange, exchange.getRequestBody());
+        if (payload == null) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload);
+        }
+    }
+
+    private void verify(HttpExchange exchange) throws IOException, GeneralSecurityException {
+        InputStream body = exchange.getRequestBody();
+        byte[] expected = readPayload(exchange, body);
+        if (expected == null) {
+            return;
+        }
+        byte[] actual = extractPayload(exchange, body);
+        if (actual == null) {
+            return;
+        }
+        if (Arrays.equals(actual, expected)) {
+            send(exchange, 200, "match");
+        } else {
+            send(exchange, 409, "mismatch");
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text, true, StandardCharsets.UTF_8);
+        StegoMetrics.export(MetricsExporter.text(out));
+        double seconds = (System.nanoTime() - started) / 1e9;
+        out.println(String.format(Locale.ROOT, "server     workers=%d active=%d queued=%d rejected=%d uptime=%.0fs",
+                workers.getMaximumPoolSize(), workers.getActiveCount(), workers.getQueue().size(),
+                rejected.sum(), seconds));
+        out.println(BufferPool.stats());
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        byte[] bytes = text.toByteArray();
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    // Leading payload of /embed and /verify bodies; null once an error has been sent
+    private byte[] readPayload(HttpExchange exchange, InputStream body) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst(PAYLOAD_LENGTH);
+        long length;
+        try {
+            length = header != null ? Long.parseLong(header.trim()) : -1;
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        if (length < 0) {
+            send(exchange, 400, PAYLOAD_LENGTH + " header required");
+            return null;
+        }
+        if (length > maxPayload) {
+            send(exchange, 413, "Payload larger than " + maxPayload + " bytes");
+            return null;
+        }
+        byte[] payload = body.readNBytes((int) length);
+        if (payload.length != length) {
+            send(exchange, 400, "Body ended inside the payload");
+            return null;
+        }
+        return payload;
+    }
+
+    // Decode the stego image and undo encryption and compression; null once an error has been sent
+    private byte[] extractPayload(HttpExchange exchange, InputStream body) throws IOException, GeneralSecurityException {
+        BufferedImage image = LsbEmbedder.read(body, maxPixels);
+        BufferedImage carrier = image;
+        StegoHeader header;
+        byte[] payload;
+        try {
+            CarrierRaster raster = CarrierRaster.of(image, false);
+            if (raster == null) {
+                carrier = LsbEmbedder.toBgr(image);
+                raster = CarrierRaster.of(carrier, false);
+            }
+            header = LsbExtractor.readHeader(raster);
+            payload = LsbExtractor.extract(raster);
+        } finally {
+            LsbEmbedder.release(image, carrier);
+        }
+        if (payload == null) {
+            send(exchange, 404, "No hidden message found");
+            return null;
+        }
+        int flags = header != null ? header.flags : 0;
+        char[] password = password(exchange);
+        if (password == null) {
+            if ((flags & (StegoHeader.FLAG_ENCRYPTED | StegoHeader.FLAG_SEALED)) != 0) {
+                send(exchange, 401, "Message is encrypted; send " + PASSWORD);
+                return null;
+            }
+        } else if ((flags & StegoHeader.FLAG_SEALED) != 0) {
+            // A wrong password fails on the tag, before anything is decrypted
+            try {
+                payload = SealedPayload.open(payload, sealKeys.get(password, SealedPayload.salt(payload)));
+            } catch (AEADBadTagException | IllegalArgumentException e) {
+                send(exchange, 403, "Decryption failed: wrong password or tampered payload");
+                return null;
+            }
+        } else {
+            try {
+                payload = TEA.decryptWithPadding(payload, keys.get(password, null));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 403, "Decryption failed: wrong password or no encrypted message");
+                return null;
+            }
+        }
+        if ((flags & StegoHeader.FLAG_COMPRESSED) != 0) {
+            try (InputStream in = PayloadCompression.decompress(new ByteArrayInputStream(payload))) {
+                payload = in.readNBytes(maxPayload + 1);
+            }
+            if (payload.length > maxPayload) {
+                send(exchange, 413, "Payload larger than " + maxPayload + " bytes");
+                return null;
+            }
+        }
+        return payload;
+    }
+
+    private static char[] password(HttpExchange exchange) {
+        String password = exchange.getRequestHeaders().getFirst(PASSWORD);
+        return password == null || password.isEmpty() ? null : password.toCharArray();
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    // Bytes read from the request, the throughput figure reported for REQUEST
+    private static long requestBytes(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return length != null ? Long.parseLong(length) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = ((message != null ? message : "Error") + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    // Report a failure unless the response has already started
+    private static void sendQuietly(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        try {
+            send(exchange, status, message);
+        } catch (IOException ignored) {
+            // Client went away
+        }
+    }
+
+    /**
+     * Command-line entry point, reached through {@code SteganographyApp serve}.
+     * @param args Options, see the usage text
+     * @throws IOException if the server cannot bind
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8765;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        long maxPixels = DEFAULT_MAX_PIXELS;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--port": port = Integer.parseInt(value); break;
+                case "--bind": bind = InetAddress.getByName(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--queue": queue = Integer.parseInt(value); break;
+                case "--max-pixels": maxPixels = Long.parseLong(value); break;
+                default:
+                    System.err.println("Unknown option " + args[i - 1]);
+                    System.err.println(USAGE);
+                    System.exit(2);
+            }
+        }
+        StegoServer server = new StegoServer(new InetSocketAddress(bind, port), threads,
+                queue < 0 ? threads * 4 : queue, DEFAULT_MAX_PAYLOAD, maxPixels);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(Duration.ofSeconds(5))));
+        server.start();
+        System.out.println("Listening on http://" + bind.getHostAddress() + ":" + server.port());
+    }
+}
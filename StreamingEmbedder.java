@@ -0,0 +1,194 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * Embeds payloads that do not fit in memory into carriers that do not fit in
+ * memory either. The payload is pulled from an {@link InputStream} in small
+ * chunks and the carrier is processed one scanline at a time, so heap use is
+ * a few rows plus a 64 KB buffer whatever the image or payload size.
+ *
+ * Payloads up to 2 GB use the same 32-bit length prefix as
+ * {@link LsbEmbedder}, so the result can be read by every extractor. Larger
+ * payloads get {@link LsbEmbedder#LONG_LENGTH_MARKER} followed by a 64-bit
+ * length and need {@link StreamingExtractor}.
+ */
+public class StreamingEmbedder {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Embeds the payload into a PNG or 24-bit BMP carrier file.
+     * @param carrier Carrier image (8-bit non-interlaced PNG or uncompressed 24-bit BMP)
+     * @param payload Payload source, read but not closed
+     * @param payloadLength Exact number of bytes the payload stream will supply
+     * @param output Destination file, written in the carrier's format
+     * @throws IOException if the carrier is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the payload does not fit
+     */
+    public static void embed(Path carrier, InputStream payload, long payloadLength, Path output) throws IOException {
+        if (PngRowReader.isPng(carrier)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(carrier), CHUNK_SIZE);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), CHUNK_SIZE)) {
+                embedPng(in, payload, payloadLength, out);
+            }
+        } else {
+            embedBmp(carrier, payload, payloadLength, output);
+        }
+    }
+
+    /**
+     * Re-encodes a PNG stream row by row with the payload in its LSBs. Rows
+     * keep the filter type they were encoded with. No stream is closed.
+     * @param carrier Carrier PNG (8-bit, non-interlaced)
+     * @param payload Payload source
+     * @param payloadLength Exact number of bytes the payload stream will supply
+     * @param output Destination for the stego PNG
+     * @throws IOException if the carrier is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the payload does not fit
+     */
+    public static void embedPng(InputStream carrier, InputStream payload, long payloadLength, OutputStream output) throws IOException {
+        try (PngRowReader png = new PngRowReader(carrier)) {
+            if (!png.isSupported()) {
+                throw new IOException("Streaming embed needs an 8-bit non-interlaced PNG");
+            }
+            int width = png.getWidth();
+            int height = png.getHeight();
+            PixelLayout layout = PixelLayout.forPng(png.getColorType(), false);
+            checkCapacity((long) width * height * layout.samplesPerPixel(), payloadLength);
+
+            byte[] row = new byte[width * png.getChannels()];
+            byte[] samples = layout.isIdentity() ? row : new byte[width * layout.samplesPerPixel()];
+            PayloadFeed feed = new PayloadFeed(payload, payloadLength);
+            try (PngRowWriter writer = new PngRowWriter(output, png.getHeaderChunks(), png.getChannels(),
+                    Deflater.DEFAULT_COMPRESSION)) {
+                boolean done = false;
+                for (int y = 0; y < height; y++) {
+                    int filter = png.readRow(row);
+                    if (!done) {
+                        layout.gather(row, width, samples);
+                        done = feed.embed(samples, samples.length);
+                        layout.scatter(samples, width, row);
+                    }
+                    writer.writeRow(filter, row, row.length);
+                }
+                writer.finish(png.readTrailerChunks());
+            }
+        }
+    }
+
+    /**
+     * Copies a 24-bit BMP carrier and embeds into the copy through
+     * {@link MappedBmp}, touching only the rows that receive payload bits.
+     * @param carrier Carrier BMP (uncompressed, 24 bits per pixel)
+     * @param payload Payload source, read but not closed
+     * @param payloadLength Exact number of bytes the payload stream will supply
+     * @param output Destination BMP file
+     * @throws IOException if the carrier is unsupported or an I/O error occurs
+     * @throws IllegalArgumentException if the payload does not fit
+     */
+    public static void embedBmp(Path carrier, InputStream payload, long payloadLength, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(carrier, StandardOpenOption.READ)) {
+            checkCapacity(BmpHeader.read(in).samples(), payloadLength);
+        }
+        Files.copy(carrier, output, StandardCopyOption.REPLACE_EXISTING);
+        MappedBmp.embed(output, payload, payloadLength);
+    }
+
+    /**
+     * @param payloadLength Payload size in bytes
+     * @return Carrier samples taken by the length prefix for this payload
+     */
+    static int lengthBits(long payloadLength) {
+        return payloadLength <= Integer.MAX_VALUE ? LsbEmbedder.LENGTH_BITS : LsbEmbedder.LONG_LENGTH_BITS;
+    }
+
+    static void checkCapacity(long samples, long payloadLength) {
+        if (payloadLength <= 0) {
+            throw new IllegalArgumentException("Payload must not be empty");
+        }
+        if (payloadLength > (samples - lengthBits(payloadLength)) / 8) {
+            throw new IllegalArgumentException("Message too large to fit in this image.");
+        }
+    }
+
+    // Length prefix followed by the payload, pulled from the stream in chunks
+    static final class PayloadFeed {
+        private final InputStream in;
+        private final LsbBitWriter bits = new LsbBitWriter();
+        private final byte[] buf;
+        private long remaining;
+
+        PayloadFeed(InputStream in, long length) {
+            this(in, length, lengthPrefix(length));
+        }
+
+        // Payload preceded by the given bytes, such as a serialized StegoHeader
+        PayloadFeed(InputStream in, long length, byte[] prefix) {
+            this.in = in;
+            this.remaining = length;
+            bits.reset(prefix, 0, prefix.length);
+            this.buf = new byte[(int) Math.min(CHUNK_SIZE, length)];
+        }
+
+        private static byte[] lengthPrefix(long length) {
+            ByteBuffer header = ByteBuffer.allocate(lengthBits(length) / 8);
+            if (lengthBits(length) == LsbEmbedder.LENGTH_BITS) {
+                header.putInt((int) length);
+            } else {
+                header.putInt(LsbEmbedder.LONG_LENGTH_MARKER).putLong(length);
+            }
+            return header.array();
+        }
+
+        // Fill the samples' LSBs; true once the whole payload has been written
+        boolean embed(byte[] samples, int len) throws IOException {
+            int off = 0;
+            while (true) {
+                off += bits.write(samples, off, len - off);
+                if (!bits.isDrained()) {
+                    return false;
+                }
+                if (remaining == 0) {
+                    return true;
+                }
+                int n = (int) Math.min(buf.length, remaining);
+                if (in.readNBytes(buf, 0, n) != n) {
+                    throw new EOFException("Payload stream ended before the declared length");
+                }
+                remaining -= n;
+                bits.reset(buf, 0, n);
+            }
+        }
+
+        // Same as above for samples in a buffer, written in place
+        boolean embed(ByteBuffer samples, int off, int len) throws IOException {
+            int end = off + len;
+            while (true) {
+                off += bits.write(samples, off, end - off);
+                if (!bits.isDrained()) {
+                    return false;
+                }
+                if (remaining == 0) {
+                    return true;
+                }
+                int n = (int) Math.min(buf.length, remaining);
+                if (in.readNBytes(buf, 0, n) != n) {
+                    throw new EOFException("Payload stream ended before the declared length");
+                }
+                remaining -= n;
+                bits.reset(buf, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+/**
+ * Counterpart of {@link StreamingEmbedder}: decodes the stego image one
+ * scanline at a time and writes the payload to an {@link OutputStream} as it
+ * is recovered. Understands the 32-bit and the 64-bit length prefix as well
+ * as a one-bit {@link StegoHeader}, whose checksum is verified as the payload
+ * streams out; on a mismatch the result is -1 and the output already written
+ * should be discarded.
+ */
+public class StreamingExtractor {
+
+    /**
+     * Extracts the payload of a PNG or 24-bit BMP stego file.
+     * @param stego Stego image file
+     * @param out Receives the payload; not closed
+     * @return The payload length, or -1 if no message found
+     * @throws IOException if the image is unsupported or an I/O error occurs
+     */
+    public static long extract(Path stego, OutputStream out) throws IOException {
+        if (PngRowReader.isPng(stego)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(stego), StreamingEmbedder.CHUNK_SIZE)) {
+                return extractPng(in, out);
+            }
+        }
+        return extractBmp(stego, out);
+    }
+
+    /**
+     * Extracts the payload of a PNG stego stream, reading only as far as the
+     * payload goes. No stream is closed.
+     * @param stego Stego PNG (8-bit, non-interlaced)
+     * @param out Receives the payload
+     * @return The payload length, or -1 if no message found
+     * @throws IOException if the image is unsupported or an I/O error occurs
+     */
+    public static long extractPng(InputStream stego, OutputStream out) throws IOException {
+        try (PngRowReader png = new PngRowReader(stego)) {
+            if (!png.isSupported()) {
+                throw new IOException("Streaming extract needs an 8-bit non-interlaced PNG");
+            }
+            int width = png.getWidth();
+            PixelLayout layout = PixelLayout.forPng(png.getColorType(), false);
+            byte[] row = new byte[width * png.getChannels()];
+            byte[] samples = layout.isIdentity() ? row : new byte[width * layout.samplesPerPixel()];
+            PayloadDrain drain = new PayloadDrain(out, (long) width * png.getHeight() * layout.samplesPerPixel(),
+                    layout.samplesPerPixel());
+            for (int y = 0; y < png.getHeight(); y++) {
+                png.readRow(row);
+                layout.gather(row, width, samples);
+                if (drain.extract(samples, samples.length)) {
+                    break;
+                }
+            }
+            return drain.result();
+        }
+    }
+
+    /**
+     * Extracts the payload of a 24-bit BMP stego file through
+     * {@link MappedBmp}, mapping only the rows that carry it.
+     * @param stego Stego BMP (uncompressed, 24 bits per pixel)
+     * @param out Receives the payload; not closed
+     * @return The payload length, or -1 if no message found
+     * @throws IOException if the image is unsupported or an I/O error occurs
+     */
+    public static long extractBmp(Path stego, OutputStream out) throws IOException {
+        return MappedBmp.extract(stego, out);
+    }
+
+    // Parses the length prefix, then streams the payload out in chunks
+    static final class PayloadDrain {
+        private static final int SHORT_HEADER = 0;
+        private static final int LONG_HEADER = 1;
+        private static final int PAYLOAD = 2;
+        private static final int DONE = 3;
+        private static final int STEGO_HEADER = 4;
+        private static final int INVALID = -1;
+
+        private final OutputStream out;
+        private final long totalSamples;
+        private final int samplesPerPixel;
+        private final LsbBitReader bits = new LsbBitReader();
+        private final byte[] header = new byte[StegoHeader.BYTES];
+        private final CRC32C crc = new CRC32C();
+        private StegoHeader stegoHeader;
+        private boolean multiBit;
+        private byte[] buf;
+        private int state = SHORT_HEADER;
+        private long length;
+        private long remaining;
+        private int chunk;
+
+        PayloadDrain(OutputStream out, long totalSamples, int samplesPerPixel) {
+            this.out = out;
+            this.totalSamples = totalSamples;
+            this.samplesPerPixel = samplesPerPixel;
+            bits.reset(header, 0, 4);
+        }
+
+        // Consume the samples' LSBs; true once the payload is complete or known to be absent
+        boolean extract(byte[] samples, int len) throws IOException {
+            int off = 0;
+            while (true) {
+                off += bits.read(samples, off, len - off);
+                if (!bits.isFull()) {
+                    return false;
+                }
+                switch (state) {
+                    case SHORT_HEADER: {
+                        int value = ByteBuffer.wrap(header).getInt(0);
+                        int size = StegoHeader.size(header);
+                        if (value == LsbEmbedder.LONG_LENGTH_MARKER) {
+                            state = LONG_HEADER;
+                            bits.reset(header, 4, 8);
+                        } else if (size != 0) {
+                            if (size < 0) {
+                                state = INVALID;
+                                return true;
+                            }
+                            state = STEGO_HEADER;
+                            bits.reset(header, 4, size - 4);
+                        } else if (!start(value, LsbEmbedder.LENGTH_BITS)) {
+                            return true;
+                        }
+                        break;
+                    }
+                    case LONG_HEADER:
+                        if (!start(ByteBuffer.wrap(header).getLong(4), LsbEmbedder.LONG_LENGTH_BITS)) {
+                            return true;
+                        }
+                        break;
+                    case STEGO_HEADER:
+                        // Only the one-bit layout can be followed sample by sample
+                        stegoHeader = StegoHeader.parse(header, samplesPerPixel);
+                        multiBit = stegoHeader != null && !stegoHeader.isSingleBit();
+                        if (stegoHeader == null || multiBit
+                                || !start(stegoHeader.length, stegoHeader.payloadSample())) {
+                            state = INVALID;
+                            return true;
+                        }
+                        break;
+                    case PAYLOAD:
+                        out.write(buf, 0, chunk);
+                        crc.update(buf, 0, chunk);
+                        remaining -= chunk;
+                        if (remaining == 0) {
+                            state = stegoHeader == null || stegoHeader.version < 2
+                                    || (int) crc.getValue() == stegoHeader.crc ? DONE : INVALID;
+                            return true;
+                        }
+                        nextChunk();
+                        break;
+                    default:
+                        return true;
+                }
+            }
+        }
+
+        private boolean start(long length, int headerBits) {
+            if (length <= 0 || length > (totalSamples - headerBits) / 8) {
+                // Probably no hidden message or corrupted
+                state = INVALID;
+                return false;
+            }
+            this.length = length;
+            this.remaining = length;
+            this.buf = new byte[(int) Math.min(StreamingEmbedder.CHUNK_SIZE, length)];
+            state = PAYLOAD;
+            nextChunk();
+            return true;
+        }
+
+        private void nextChunk() {
+            chunk = (int) Math.min(buf.length, remaining);
+            bits.reset(buf, 0, chunk);
+        }
+
+        long result() {
+            return state == DONE ? length : -1;
+        }
+
+        // A valid header for a layout this drain cannot follow; a full decode may still find the payload
+        boolean needsFullDecode() {
+            return multiBit;
+        }
+    }
+}
@@ -12,23 +12,27 @@ public class TEA {
      * @return Encrypted bytes
      */
     public static byte[] encryptWithPadding(byte[] plaintext, byte[] key) {
-        int[] k = formatKey(key);
-        byte[] padded = addPKCS7Padding(plaintext);
-
-        int[] blocks = new int[padded.length / 4];
-        for (int i = 0; i < blocks.length; i++) {
-            blocks[i] = bytesToInt(padded, i * 4);
-        }
-
-        for (int i = 0; i < blocks.length; i += 2) {
-            encryptBlock(blocks, i, k);
-        }
+        return encryptWithPadding(plaintext, TeaKey.of(key));
+    }
 
-        byte[] encrypted = new byte[padded.length];
-        for (int i = 0; i < blocks.length; i++) {
-            intToBytes(blocks[i], encrypted, i * 4);
+    /**
+     * Encrypts plaintext with a pre-parsed key and PKCS7 padding.
+     * @param plaintext Original bytes
+     * @param key Parsed key, reusable across calls
+     * @return Encrypted bytes
+     */
+    public static byte[] encryptWithPadding(byte[] plaintext, TeaKey key) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.ENCRYPT)) {
+            int[] k = key.schedule();
+            byte[] padded = addPKCS7Padding(plaintext);
+
+            // Encrypt in place; the padded copy is the only allocation
+            for (int i = 0; i < padded.length; i += 8) {
+                encryptBlock(padded, i, padded, i, k);
+            }
+            span.done(plaintext.length);
+            return padded;
         }
-        return encrypted;
     }
 
     /**
@@ -38,30 +42,87 @@ public class TEA {
      * @return Decrypted bytes without padding
      */
     public static byte[] decryptWithPadding(byte[] ciphertext, byte[] key) {
-        if (ciphertext.length % 8 != 0) {
-            throw new IllegalArgumentException("Ciphertext length must be multiple of 8");
-        }
-        int[] k = formatKey(key);
+        return decryptWithPadding(ciphertext, TeaKey.of(key));
+    }
 
-        int[] blocks = new int[ciphertext.length / 4];
-        for (int i = 0; i < blocks.length; i++) {
-            blocks[i] = bytesToInt(ciphertext, i * 4);
+    /**
+     * Decrypts TEA encrypted bytes with a pre-parsed key and removes PKCS7 padding.
+     * @param ciphertext Encrypted bytes
+     * @param key Parsed key, reusable across calls
+     * @return Decrypted bytes without padding
+     */
+    public static byte[] decryptWithPadding(byte[] ciphertext, TeaKey key) {
+        try (StegoMetrics.Span span = StegoMetrics.start(StegoMetrics.Phase.DECRYPT)) {
+            byte[] plaintext = decrypt(ciphertext, key);
+            span.done(ciphertext.length);
+            return plaintext;
         }
+    }
 
-        for (int i = 0; i < blocks.length; i += 2) {
-            decryptBlock(blocks, i, k);
+    private static byte[] decrypt(byte[] ciphertext, TeaKey key) {
+        if (ciphertext.length % 8 != 0 || ciphertext.length == 0) {
+            throw new IllegalArgumentException("Ciphertext length must be multiple of 8");
         }
+        int[] k = key.schedule();
 
-        byte[] decrypted = new byte[ciphertext.length];
-        for (int i = 0; i < blocks.length; i++) {
-            intToBytes(blocks[i], decrypted, i * 4);
+        // Decrypt the last block first so the output can be sized exactly
+        int lastOffset = ciphertext.length - 8;
+        byte[] last = new byte[8];
+        decryptBlock(ciphertext, lastOffset, last, 0, k);
+        int paddingLength = pkcs7PaddingLength(last, 0, 8);
+
+        byte[] decrypted = new byte[ciphertext.length - paddingLength];
+        for (int i = 0; i < lastOffset; i += 8) {
+            decryptBlock(ciphertext, i, decrypted, i, k);
         }
+        System.arraycopy(last, 0, decrypted, lastOffset, 8 - paddingLength);
+        return decrypted;
+    }
 
-        return removePKCS7Padding(decrypted);
+    /**
+     * Creates a CTR-mode cipher with a random IV. In CTR mode encryption and
+     * decryption are the same operation, no padding is needed and blocks are
+     * independent, so large buffers are processed in parallel.
+     * @param key 16-byte key
+     * @return A cipher for one message, positioned at the start of the keystream
+     */
+    public static TeaCtr newEncryptor(byte[] key) {
+        return newEncryptor(TeaKey.of(key));
+    }
+
+    /**
+     * Creates a CTR-mode cipher with a random IV from a pre-parsed key.
+     * @param key Parsed key, reusable across calls
+     * @return A cipher for one message, positioned at the start of the keystream
+     */
+    public static TeaCtr newEncryptor(TeaKey key) {
+        return new TeaCtr(key.schedule(), TeaCtr.randomIv());
+    }
+
+    /**
+     * Creates a CTR-mode cipher that decrypts data produced by
+     * {@link #newEncryptor(byte[])} with the same key and IV.
+     * @param key 16-byte key
+     * @param iv 8-byte IV returned by {@link TeaCtr#getIv()}
+     * @return A cipher for one message, positioned at the start of the keystream
+     */
+    public static TeaCtr newDecryptor(byte[] key, byte[] iv) {
+        return newDecryptor(TeaKey.of(key), iv);
+    }
+
+    /**
+     * Creates a CTR-mode decryptor from a pre-parsed key.
+     * @param key Parsed key, reusable across calls
+     * @param iv 8-byte IV returned by {@link TeaCtr#getIv()}
+     * @return A cipher for one message, positioned at the start of the keystream
+     */
+    public static TeaCtr newDecryptor(TeaKey key, byte[] iv) {
+        if (iv.length != 8) throw new IllegalArgumentException("IV must be 8 bytes");
+        return new TeaCtr(key.schedule(), ((long) bytesToInt(iv, 0) << 32) | (bytesToInt(iv, 4) & 0xFFFFFFFFL));
     }
 
     // PKCS7 padding: append N bytes of value N, where N = bytes to add
-    private static byte[] addPKCS7Padding(byte[] data) {
+    static byte[] addPKCS7Padding(byte[] data) {
         int paddingLength = 8 - (data.length % 8);
         byte[] padded = Arrays.copyOf(data, data.length + paddingLength);
         for (int i = data.length; i < padded.length; i++) {
@@ -70,44 +131,57 @@ public class TEA {
         return padded;
     }
 
-    // Remove PKCS7 padding
-    private static byte[] removePKCS7Padding(byte[] data) {
-        int paddingValue = data[data.length - 1] & 0xFF;
+    // Validate PKCS7 padding at the end of the range and return its length
+    static int pkcs7PaddingLength(byte[] data, int offset, int length) {
+        int paddingValue = data[offset + length - 1] & 0xFF;
         if (paddingValue < 1 || paddingValue > 8) {
             throw new IllegalArgumentException("Invalid padding");
         }
-        for (int i = data.length - paddingValue; i < data.length; i++) {
+        for (int i = offset + length - paddingValue; i < offset + length; i++) {
             if ((data[i] & 0xFF) != paddingValue) {
                 throw new IllegalArgumentException("Invalid padding");
             }
         }
-        return Arrays.copyOf(data, data.length - paddingValue);
+        return paddingValue;
+    }
+
+    // Encrypt the 8-byte block at src[srcOff] into dst[dstOff]; src and dst may alias
+    static void encryptBlock(byte[] src, int srcOff, byte[] dst, int dstOff, int[] k) {
+        long v = encryptBlock(bytesToInt(src, srcOff), bytesToInt(src, srcOff + 4), k);
+        intToBytes((int) (v >>> 32), dst, dstOff);
+        intToBytes((int) v, dst, dstOff + 4);
+    }
+
+    // Decrypt the 8-byte block at src[srcOff] into dst[dstOff]; src and dst may alias
+    static void decryptBlock(byte[] src, int srcOff, byte[] dst, int dstOff, int[] k) {
+        long v = decryptBlock(bytesToInt(src, srcOff), bytesToInt(src, srcOff + 4), k);
+        intToBytes((int) (v >>> 32), dst, dstOff);
+        intToBytes((int) v, dst, dstOff + 4);
     }
 
-    private static void encryptBlock(int[] blocks, int offset, int[] k) {
-        int v0 = blocks[offset], v1 = blocks[offset + 1], sum = 0;
+    // Returns the encrypted block as v0 in the high and v1 in the low 32 bits
+    static long encryptBlock(int v0, int v1, int[] k) {
+        int sum = 0;
         for (int i = 0; i < ROUNDS; i++) {
             sum += DELTA;
             v0 += ((v1 << 4) + k[0]) ^ (v1 + sum) ^ ((v1 >>> 5) + k[1]);
             v1 += ((v0 << 4) + k[2]) ^ (v0 + sum) ^ ((v0 >>> 5) + k[3]);
         }
-        blocks[offset] = v0;
-        blocks[offset + 1] = v1;
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
     }
 
-    private static void decryptBlock(int[] blocks, int offset, int[] k) {
-        int v0 = blocks[offset], v1 = blocks[offset + 1];
+    // Returns the decrypted block as v0 in the high and v1 in the low 32 bits
+    static long decryptBlock(int v0, int v1, int[] k) {
         int sum = DELTA * ROUNDS;
         for (int i = 0; i < ROUNDS; i++) {
             v1 -= ((v0 << 4) + k[2]) ^ (v0 + sum) ^ ((v0 >>> 5) + k[3]);
             v0 -= ((v1 << 4) + k[0]) ^ (v1 + sum) ^ ((v1 >>> 5) + k[1]);
             sum -= DELTA;
         }
-        blocks[offset] = v0;
-        blocks[offset + 1] = v1;
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
     }
 
-    private static int[] formatKey(byte[] key) {
+    static int[] formatKey(byte[] key) {
         if (key.length < 16) throw new IllegalArgumentException("Key must be 16 bytes");
         int[] k = new int[4];
         for (int i = 0; i < 4; i++) {
@@ -116,14 +190,14 @@ public class TEA {
         return k;
     }
 
-    private static int bytesToInt(byte[] bytes, int offset) {
+    static int bytesToInt(byte[] bytes, int offset) {
         return ((bytes[offset] & 0xFF) << 24)
                 | ((bytes[offset + 1] & 0xFF) << 16)
                 | ((bytes[offset + 2] & 0xFF) << 8)
                 | (bytes[offset + 3] & 0xFF);
     }
 
-    private static void intToBytes(int val, byte[] dest, int destOffset) {
+    static void intToBytes(int val, byte[] dest, int destOffset) {
         dest[destOffset] = (byte) (val >>> 24);
         dest[destOffset + 1] = (byte) (val >>> 16);
         dest[destOffset + 2] = (byte) (val >>> 8);
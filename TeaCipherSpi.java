@@ -0,0 +1,343 @@
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * JCE engine for TEA and XTEA with ECB, CBC and CTR modes and PKCS5/PKCS7
+ * padding, built on the block rounds in {@link TEA} and {@link XTEA}.
+ * Registered by {@link TeaProvider}; obtain it through
+ * {@code Cipher.getInstance("TEA/CBC/PKCS5Padding", provider)}.
+ */
+public abstract class TeaCipherSpi extends CipherSpi {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int ECB = 0;
+    private static final int CBC = 1;
+    private static final int CTR = 2;
+
+    /** Cipher.TEA */
+    public static final class Tea extends TeaCipherSpi {
+        @Override
+        protected long encrypt(long block, TeaKey k) {
+            return TEA.encryptBlock((int) (block >>> 32), (int) block, k.schedule());
+        }
+
+        @Override
+        protected long decrypt(long block, TeaKey k) {
+            return TEA.decryptBlock((int) (block >>> 32), (int) block, k.schedule());
+        }
+    }
+
+    /** Cipher.XTEA */
+    public static final class Xtea extends TeaCipherSpi {
+        @Override
+        protected long encrypt(long block, TeaKey k) {
+            return XTEA.encryptBlock((int) (block >>> 32), (int) block, k);
+        }
+
+        @Override
+        protected long decrypt(long block, TeaKey k) {
+            return XTEA.decryptBlock((int) (block >>> 32), (int) block, k);
+        }
+    }
+
+    private int mode = ECB;
+    private boolean padding = true;
+    private boolean encrypting;
+    private TeaKey k;
+    private byte[] iv;
+
+    // Running state, reset by doFinal
+    private long chain;
+    private long counter;
+    private long keystream;
+    private int keystreamUsed = BLOCK_SIZE;
+    private final byte[] buf = new byte[BLOCK_SIZE];
+    private int bufLen;
+
+    protected abstract long encrypt(long block, TeaKey k);
+
+    protected abstract long decrypt(long block, TeaKey k);
+
+    @Override
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        switch (mode.toUpperCase(Locale.ROOT)) {
+            case "ECB": this.mode = ECB; break;
+            case "CBC": this.mode = CBC; break;
+            case "CTR": this.mode = CTR; break;
+            default: throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+        }
+    }
+
+    @Override
+    protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+        switch (padding.toUpperCase(Locale.ROOT)) {
+            case "NOPADDING": this.padding = false; break;
+            case "PKCS5PADDING":
+            case "PKCS7PADDING": this.padding = true; break;
+            default: throw new NoSuchPaddingException("Unsupported padding " + padding);
+        }
+    }
+
+    @Override
+    protected int engineGetBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    protected int engineGetOutputSize(int inputLen) {
+        int total = bufLen + inputLen;
+        if (mode == CTR) {
+            return inputLen;
+        }
+        if (encrypting && padding) {
+            return (total / BLOCK_SIZE + 1) * BLOCK_SIZE;
+        }
+        return (total / BLOCK_SIZE) * BLOCK_SIZE;
+    }
+
+    @Override
+    protected int engineGetKeySize(Key key) {
+        return 128;
+    }
+
+    @Override
+    protected byte[] engineGetIV() {
+        return iv == null ? null : iv.clone();
+    }
+
+    @Override
+    protected AlgorithmParameters engineGetParameters() {
+        // No AlgorithmParameters engine is registered; callers use getIV()
+        return null;
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+        try {
+            engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException("An IV is required to decrypt in this mode", e);
+        }
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        AlgorithmParameterSpec spec = null;
+        if (params != null) {
+            try {
+                spec = params.getParameterSpec(IvParameterSpec.class);
+            } catch (InvalidParameterSpecException e) {
+                throw new InvalidAlgorithmParameterException("Expected IV parameters", e);
+            }
+        }
+        engineInit(opmode, key, spec, random);
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        byte[] encoded = key.getEncoded();
+        if (encoded == null || encoded.length != 16) {
+            throw new InvalidKeyException("Key must be 16 bytes");
+        }
+        if (mode == CTR && padding) {
+            // A stream mode never pads; treat the default padding as none
+            padding = false;
+        }
+        encrypting = opmode == Cipher.ENCRYPT_MODE || opmode == Cipher.WRAP_MODE;
+        k = TeaKey.of(encoded);
+
+        if (mode == ECB) {
+            if (params != null) {
+                throw new InvalidAlgorithmParameterException("ECB mode takes no IV");
+            }
+            iv = null;
+        } else if (params instanceof IvParameterSpec) {
+            iv = ((IvParameterSpec) params).getIV();
+            if (iv.length != BLOCK_SIZE) {
+                throw new InvalidAlgorithmParameterException("IV must be 8 bytes");
+            }
+        } else if (params == null && encrypting) {
+            iv = new byte[BLOCK_SIZE];
+            (random != null ? random : new SecureRandom()).nextBytes(iv);
+        } else {
+            throw new InvalidAlgorithmParameterException("An 8-byte IvParameterSpec is required");
+        }
+        reset();
+    }
+
+    private void reset() {
+        long v = iv == null ? 0 : toLong(iv, 0);
+        chain = v;
+        counter = v;
+        keystreamUsed = BLOCK_SIZE;
+        bufLen = 0;
+    }
+
+    @Override
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        byte[] out = new byte[updateSize(inputLen)];
+        process(input, inputOffset, inputLen, out, 0);
+        return out;
+    }
+
+    @Override
+    protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException {
+        int needed = updateSize(inputLen);
+        if (output.length - outputOffset < needed) {
+            throw new ShortBufferException("Need " + needed + " bytes of output space");
+        }
+        return process(input, inputOffset, inputLen, output, outputOffset);
+    }
+
+    @Override
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
+            throws IllegalBlockSizeException, BadPaddingException {
+        byte[] out = new byte[engineGetOutputSize(inputLen)];
+        try {
+            int n = engineDoFinal(input, inputOffset, inputLen, out, 0);
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        if (output.length - outputOffset < engineGetOutputSize(inputLen)) {
+            throw new ShortBufferException("Need " + engineGetOutputSize(inputLen) + " bytes of output space");
+        }
+        try {
+            int n = input == null ? 0 : process(input, inputOffset, inputLen, output, outputOffset);
+            if (mode == CTR) {
+                return n;
+            }
+            if (encrypting) {
+                if (padding) {
+                    byte[] last = TEA.addPKCS7Padding(Arrays.copyOf(buf, bufLen));
+                    processBlock(last, 0, output, outputOffset + n);
+                    n += BLOCK_SIZE;
+                } else if (bufLen != 0) {
+                    throw new IllegalBlockSizeException("Input length not multiple of 8 bytes");
+                }
+                return n;
+            }
+            if (!padding) {
+                if (bufLen != 0) {
+                    throw new IllegalBlockSizeException("Input length not multiple of 8 bytes");
+                }
+                return n;
+            }
+            if (bufLen != BLOCK_SIZE) {
+                throw new IllegalBlockSizeException("Input length not multiple of 8 bytes");
+            }
+            byte[] last = new byte[BLOCK_SIZE];
+            processBlock(buf, 0, last, 0);
+            int paddingLength;
+            try {
+                paddingLength = TEA.pkcs7PaddingLength(last, 0, BLOCK_SIZE);
+            } catch (IllegalArgumentException e) {
+                throw new BadPaddingException("Invalid padding");
+            }
+            System.arraycopy(last, 0, output, outputOffset + n, BLOCK_SIZE - paddingLength);
+            return n + BLOCK_SIZE - paddingLength;
+        } finally {
+            reset();
+        }
+    }
+
+    // Output produced by an update of inputLen bytes, accounting for the held-back block
+    private int updateSize(int inputLen) {
+        if (mode == CTR) {
+            return inputLen;
+        }
+        int blocks = (bufLen + inputLen) / BLOCK_SIZE;
+        if (!encrypting && padding && blocks > 0 && (bufLen + inputLen) % BLOCK_SIZE == 0) {
+            blocks--;
+        }
+        return blocks * BLOCK_SIZE;
+    }
+
+    private int process(byte[] in, int off, int len, byte[] out, int outOff) {
+        if (mode == CTR) {
+            for (int i = 0; i < len; i++) {
+                if (keystreamUsed == BLOCK_SIZE) {
+                    keystream = encrypt(counter++, k);
+                    keystreamUsed = 0;
+                }
+                out[outOff + i] = (byte) (in[off + i] ^ (keystream >>> (56 - 8 * keystreamUsed++)));
+            }
+            return len;
+        }
+
+        // Decrypting with padding holds the final full block back for doFinal
+        boolean holdBack = !encrypting && padding;
+        int written = 0;
+        while (len > 0) {
+            if (bufLen == 0 && len > BLOCK_SIZE || bufLen == 0 && len == BLOCK_SIZE && !holdBack) {
+                processBlock(in, off, out, outOff + written);
+                written += BLOCK_SIZE;
+                off += BLOCK_SIZE;
+                len -= BLOCK_SIZE;
+                continue;
+            }
+            if (bufLen == BLOCK_SIZE) {
+                processBlock(buf, 0, out, outOff + written);
+                written += BLOCK_SIZE;
+                bufLen = 0;
+                continue;
+            }
+            int n = Math.min(BLOCK_SIZE - bufLen, len);
+            System.arraycopy(in, off, buf, bufLen, n);
+            bufLen += n;
+            off += n;
+            len -= n;
+            if (bufLen == BLOCK_SIZE && (len > 0 || !holdBack)) {
+                processBlock(buf, 0, out, outOff + written);
+                written += BLOCK_SIZE;
+                bufLen = 0;
+            }
+        }
+        return written;
+    }
+
+    private void processBlock(byte[] in, int off, byte[] out, int outOff) {
+        long block = toLong(in, off);
+        long result;
+        if (mode == CBC) {
+            if (encrypting) {
+                result = encrypt(block ^ chain, k);
+                chain = result;
+            } else {
+                result = decrypt(block, k) ^ chain;
+                chain = block;
+            }
+        } else {
+            result = encrypting ? encrypt(block, k) : decrypt(block, k);
+        }
+        TEA.intToBytes((int) (result >>> 32), out, outOff);
+        TEA.intToBytes((int) result, out, outOff + 4);
+    }
+
+    private static long toLong(byte[] b, int off) {
+        return ((long) TEA.bytesToInt(b, off) << 32) | (TEA.bytesToInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,233 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TEA in counter (CTR) mode: block {@code i} of the keystream is the TEA
+ * encryption of {@code iv + i}. {@link XTEA#newCtr} gives the same mode
+ * over XTEA. Because every block is independent, the
+ * cipher works directly between byte arrays or buffers without an
+ * intermediate {@code int[]}, needs no padding, and splits large inputs into
+ * chunks processed in parallel. Encryption and decryption are the same
+ * operation.
+ *
+ * Instances are stateful (they track the keystream position) and not
+ * thread-safe; create them with {@link TEA#newEncryptor} and
+ * {@link TEA#newDecryptor}. Each instance handles one message: after
+ * {@code doFinal} it refuses further input, since starting over with the
+ * same IV would reuse the keystream. Use a new encryptor, and so a new IV,
+ * for every message.
+ */
+public class TeaCtr {
+
+    /** Input size in bytes below which {@link #update} stays on the calling thread. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int[] k;
+    private final long iv;
+    private final boolean xtea;
+    private long position;
+    private boolean finished;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    TeaCtr(int[] k, long iv) {
+        this(k, iv, false);
+    }
+
+    // With xtea set, k holds TeaKey's XTEA round keys rather than the key words
+    TeaCtr(int[] k, long iv, boolean xtea) {
+        this.k = k;
+        this.iv = iv;
+        this.xtea = xtea;
+    }
+
+    static long randomIv() {
+        return RANDOM.nextLong();
+    }
+
+    /** @return The 8-byte IV the decryptor needs */
+    public byte[] getIv() {
+        return ByteBuffer.allocate(8).putLong(iv).array();
+    }
+
+    /**
+     * Chooses where large updates run.
+     * @param pool Pool for parallel chunks, or null to always run sequentially
+     * @param threshold Input size in bytes below which work is not split
+     * @return this
+     */
+    public TeaCtr parallel(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.parallelThreshold = Math.max(8, threshold);
+        return this;
+    }
+
+    /**
+     * Encrypts or decrypts {@code len} bytes. Input and output may be the
+     * same array, including at the same offset.
+     * @param in Input bytes
+     * @param inOff First input byte
+     * @param len Number of bytes
+     * @param out Output buffer
+     * @param outOff First output byte
+     * @return Number of bytes written, always {@code len}
+     * @throws IllegalStateException if {@code doFinal} was already called
+     */
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkNotFinished();
+        if (pool != null && len >= parallelThreshold) {
+            pool.invoke(new Chunk(k, iv, xtea, position, in, inOff, out, outOff, len, parallelThreshold));
+        } else {
+            xor(k, iv, xtea, position, in, inOff, out, outOff, len);
+        }
+        position += len;
+        return len;
+    }
+
+    /**
+     * Encrypts or decrypts everything remaining in {@code in} into
+     * {@code out}. Heap buffers are processed in place; direct buffers go
+     * through a small bounce buffer.
+     * @param in Input, consumed up to its limit
+     * @param out Output, must have at least {@code in.remaining()} bytes left
+     * @return Number of bytes written
+     * @throws IllegalStateException if {@code doFinal} was already called
+     */
+    public int update(ByteBuffer in, ByteBuffer out) {
+        checkNotFinished();
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new IllegalArgumentException("Output buffer too small: need " + len + " bytes");
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            update(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.limit());
+            out.position(out.position() + len);
+            return len;
+        }
+        byte[] bounce = new byte[Math.min(len, 64 * 1024)];
+        int done = 0;
+        while (done < len) {
+            int n = Math.min(bounce.length, len - done);
+            in.get(bounce, 0, n);
+            update(bounce, 0, n, bounce, 0);
+            out.put(bounce, 0, n);
+            done += n;
+        }
+        return len;
+    }
+
+    /**
+     * Processes the final input. CTR needs no padding, so this is
+     * {@link #update(ByteBuffer, ByteBuffer)}, after which the instance is
+     * spent.
+     * @param in Input, consumed up to its limit
+     * @param out Output, must have at least {@code in.remaining()} bytes left
+     * @return Number of bytes written
+     * @throws IllegalStateException if {@code doFinal} was already called
+     */
+    public int doFinal(ByteBuffer in, ByteBuffer out) {
+        int n = update(in, out);
+        finished = true;
+        return n;
+    }
+
+    /**
+     * Convenience one-shot: processes the whole array, after which the
+     * instance is spent.
+     * @param in Input bytes
+     * @return A new array with the result
+     * @throws IllegalStateException if {@code doFinal} was already called
+     */
+    public byte[] doFinal(byte[] in) {
+        byte[] out = new byte[in.length];
+        update(in, 0, in.length, out, 0);
+        finished = true;
+        return out;
+    }
+
+    // A second message under the same IV would be XORed with the same keystream
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("Cipher already finished; create a new one with a fresh IV");
+        }
+    }
+
+    // XOR the keystream starting at byte 'pos' over len bytes; stateless, so chunks can run concurrently
+    static void xor(int[] k, long iv, boolean xtea, long pos, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        int i = 0;
+        long block = pos >>> 3;
+        int skip = (int) (pos & 7);
+        if (skip != 0) {
+            long ks = keystream(k, iv, xtea, block++);
+            for (; skip < 8 && i < len; skip++, i++) {
+                out[outOff + i] = (byte) (in[inOff + i] ^ (ks >>> (56 - 8 * skip)));
+            }
+        }
+        for (; len - i >= 8; i += 8) {
+            long ks = keystream(k, iv, xtea, block++);
+            LONG.set(out, outOff + i, (long) LONG.get(in, inOff + i) ^ ks);
+        }
+        if (i < len) {
+            long ks = keystream(k, iv, xtea, block);
+            for (int b = 0; i < len; b++, i++) {
+                out[outOff + i] = (byte) (in[inOff + i] ^ (ks >>> (56 - 8 * b)));
+            }
+        }
+    }
+
+    private static long keystream(int[] k, long iv, boolean xtea, long block) {
+        long counter = iv + block;
+        return xtea
+                ? XTEA.encryptRounds((int) (counter >>> 32), (int) counter, k)
+                : TEA.encryptBlock((int) (counter >>> 32), (int) counter, k);
+    }
+
+    private static final class Chunk extends RecursiveAction {
+        private final int[] k;
+        private final long iv;
+        private final boolean xtea;
+        private final long pos;
+        private final byte[] in;
+        private final int inOff;
+        private final byte[] out;
+        private final int outOff;
+        private final int len;
+        private final int threshold;
+
+        Chunk(int[] k, long iv, boolean xtea, long pos, byte[] in, int inOff, byte[] out, int outOff, int len,
+              int threshold) {
+            this.k = k;
+            this.iv = iv;
+            this.xtea = xtea;
+            this.pos = pos;
+            this.in = in;
+            this.inOff = inOff;
+            this.out = out;
+            this.outOff = outOff;
+            this.len = len;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (len < 2 * threshold) {
+                xor(k, iv, xtea, pos, in, inOff, out, outOff, len);
+                return;
+            }
+            // Split on a block boundary of the keystream
+            int half = (int) (((pos + len / 2) & ~7L) - pos);
+            invokeAll(new Chunk(k, iv, xtea, pos, in, inOff, out, outOff, half, threshold),
+                    new Chunk(k, iv, xtea, pos + half, in, inOff + half, out, outOff + half, len - half, threshold));
+        }
+    }
+}
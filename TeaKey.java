@@ -0,0 +1,57 @@
+import java.util.Arrays;
+
+/**
+ * A parsed 128-bit TEA/XTEA key. Parsing the key bytes and mixing the round
+ * constants happens once here instead of on every call, so a key used for
+ * many payloads should be created once and passed to the {@link TEA}
+ * overloads that take a {@code TeaKey}. Instances are immutable and safe to
+ * share between threads; {@link KeyCache} hands out shared instances per
+ * password.
+ */
+public final class TeaKey {
+
+    private static final int DELTA = 0x9E3779B9;
+    private static final int ROUNDS = 32;
+
+    private final int[] k;
+    // XTEA round keys: sum + k[sum & 3] for the first half-round, sum' + k[(sum' >>> 11) & 3] for the second
+    private final int[] xteaRoundKeys = new int[2 * ROUNDS];
+
+    private TeaKey(int[] k) {
+        this.k = k;
+        int sum = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            xteaRoundKeys[2 * i] = sum + k[sum & 3];
+            sum += DELTA;
+            xteaRoundKeys[2 * i + 1] = sum + k[(sum >>> 11) & 3];
+        }
+    }
+
+    /**
+     * @param key 16-byte key
+     * @return The parsed key
+     */
+    public static TeaKey of(byte[] key) {
+        return new TeaKey(TEA.formatKey(key));
+    }
+
+    // The four big-endian key words; callers must not modify the array
+    int[] schedule() {
+        return k;
+    }
+
+    // Precomputed XTEA round keys, two per round; callers must not modify the array
+    int[] xteaRoundKeys() {
+        return xteaRoundKeys;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TeaKey && Arrays.equals(k, ((TeaKey) o).k);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(k);
+    }
+}
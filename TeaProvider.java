@@ -0,0 +1,47 @@
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * JCE provider exposing {@link TEA} and {@link XTEA} as {@code Cipher}
+ * algorithms, so they compose with {@code CipherInputStream},
+ * {@code CipherOutputStream} and NIO channels instead of buffering whole
+ * messages. Keys are 16-byte {@code SecretKeySpec}s.
+ *
+ * For example, to encrypt straight into the streaming embedder:
+ * <pre>
+ * Cipher c = Cipher.getInstance("XTEA/CTR/NoPadding", TeaProvider.install());
+ * c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "XTEA"));
+ * StreamingEmbedder.embed(carrier, new CipherInputStream(payload, c), c.getOutputSize(length), out);
+ * </pre>
+ */
+public class TeaProvider extends Provider {
+
+    public static final String NAME = "TEA";
+
+    public TeaProvider() {
+        super(NAME, "1.0", "TEA and XTEA ciphers (ECB/CBC/CTR, NoPadding/PKCS5Padding/PKCS7Padding)");
+        register("TEA", TeaCipherSpi.Tea.class.getName());
+        register("XTEA", TeaCipherSpi.Xtea.class.getName());
+    }
+
+    private void register(String algorithm, String className) {
+        put("Cipher." + algorithm, className);
+        put("Cipher." + algorithm + " SupportedModes", "ECB|CBC|CTR");
+        put("Cipher." + algorithm + " SupportedPaddings", "NOPADDING|PKCS5PADDING|PKCS7PADDING");
+        put("Cipher." + algorithm + " SupportedKeyFormats", "RAW");
+    }
+
+    /**
+     * Registers the provider with {@link Security} unless already present.
+     * @return The installed provider
+     */
+    public static synchronized Provider install() {
+        Provider existing = Security.getProvider(NAME);
+        if (existing != null) {
+            return existing;
+        }
+        Provider provider = new TeaProvider();
+        Security.addProvider(provider);
+        return provider;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * XTEA block rounds. XTEA uses the same 64-bit block and 128-bit key as
+ * {@link TEA} but fixes TEA's related-key weaknesses; it is exposed through
+ * {@link TeaProvider} rather than its own padding helpers, and in CTR mode
+ * through {@link #newCtr} for {@link SealedPayload}.
+ */
+public class XTEA {
+
+    private static final int DELTA = 0x9E3779B9;
+    private static final int ROUNDS = 32;
+
+    // Returns the encrypted block as v0 in the high and v1 in the low 32 bits
+    static long encryptBlock(int v0, int v1, int[] k) {
+        int sum = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + k[sum & 3]);
+            sum += DELTA;
+            v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + k[(sum >>> 11) & 3]);
+        }
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
+    }
+
+    // Returns the decrypted block as v0 in the high and v1 in the low 32 bits
+    static long decryptBlock(int v0, int v1, int[] k) {
+        int sum = DELTA * ROUNDS;
+        for (int i = 0; i < ROUNDS; i++) {
+            v1 -= (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + k[(sum >>> 11) & 3]);
+            sum -= DELTA;
+            v0 -= (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + k[sum & 3]);
+        }
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Creates an XTEA cipher in CTR mode; like {@link TEA#newDecryptor(TeaKey, byte[])}
+     * the same call encrypts and decrypts.
+     * @param key Parsed key, reusable across calls
+     * @param iv 8-byte IV
+     * @return A cipher positioned at the start of the keystream
+     */
+    public static TeaCtr newCtr(TeaKey key, byte[] iv) {
+        if (iv.length != 8) throw new IllegalArgumentException("IV must be 8 bytes");
+        long counter = ((long) TEA.bytesToInt(iv, 0) << 32) | (TEA.bytesToInt(iv, 4) & 0xFFFFFFFFL);
+        return new TeaCtr(key.xteaRoundKeys(), counter, true);
+    }
+
+    // Same as encryptBlock(int, int, int[]) using the round keys precomputed by TeaKey
+    static long encryptBlock(int v0, int v1, TeaKey key) {
+        return encryptRounds(v0, v1, key.xteaRoundKeys());
+    }
+
+    // Same as encryptBlock(int, int, TeaKey) given TeaKey's round keys directly
+    static long encryptRounds(int v0, int v1, int[] rk) {
+        for (int i = 0; i < 2 * ROUNDS; i += 2) {
+            v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ rk[i];
+            v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ rk[i + 1];
+        }
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
+    }
+
+    // Same as decryptBlock(int, int, int[]) using the round keys precomputed by TeaKey
+    static long decryptBlock(int v0, int v1, TeaKey key) {
+        int[] rk = key.xteaRoundKeys();
+        for (int i = 2 * ROUNDS - 2; i >= 0; i -= 2) {
+            v1 -= (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ rk[i + 1];
+            v0 -= (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ rk[i];
+        }
+        return ((long) v0 << 32) | (v1 & 0xFFFFFFFFL);
+    }
+}
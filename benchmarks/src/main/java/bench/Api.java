@@ -0,0 +1,244 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Typed handles onto the application classes. Those live in the unnamed
+ * package, which cannot be imported, and JMH refuses benchmarks in the
+ * unnamed package, so the benchmarks reach them through here. Handles held
+ * in static finals are constants to the JIT and inline like direct calls.
+ */
+final class Api {
+
+    private static final MethodHandle TEA_KEY_OF;
+    private static final MethodHandle ENCRYPT;
+    private static final MethodHandle DECRYPT;
+    private static final MethodHandle NEW_ENCRYPTOR;
+    private static final MethodHandle CTR_PARALLEL;
+    private static final MethodHandle CTR_DO_FINAL;
+    private static final MethodHandle OPTIONS;
+    private static final MethodHandle OPTIONS_PARALLEL;
+    private static final MethodHandle CAPACITY;
+    private static final MethodHandle EMBED;
+    private static final MethodHandle EXTRACT;
+    private static final MethodHandle EMBED_FILE;
+    private static final MethodHandle EXTRACT_LAZY;
+    private static final MethodHandle WRITE_BMP;
+    private static final MethodHandle WRITE_BMP_STREAM;
+    private static final MethodHandle PNG_DEFAULTS;
+    private static final MethodHandle PNG_LEVEL;
+    private static final MethodHandle PNG_STRATEGY;
+    private static final MethodHandle PNG_FILTER;
+    private static final MethodHandle PNG_PARALLEL;
+    private static final MethodHandle PNG_WRITE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> tea = Class.forName("TEA");
+            Class<?> teaKey = Class.forName("TeaKey");
+            Class<?> teaCtr = Class.forName("TeaCtr");
+            Class<?> options = Class.forName("StegoOptions");
+            Class<?> embedder = Class.forName("LsbEmbedder");
+            Class<?> extractor = Class.forName("LsbExtractor");
+            Class<?> bmpWriter = Class.forName("BmpWriter");
+            Class<?> png = Class.forName("PngEncoder");
+
+            TEA_KEY_OF = erase(lookup.findStatic(teaKey, "of", MethodType.methodType(teaKey, byte[].class)));
+            ENCRYPT = erase(lookup.findStatic(tea, "encryptWithPadding",
+                    MethodType.methodType(byte[].class, byte[].class, teaKey)));
+            DECRYPT = erase(lookup.findStatic(tea, "decryptWithPadding",
+                    MethodType.methodType(byte[].class, byte[].class, teaKey)));
+            NEW_ENCRYPTOR = erase(lookup.findStatic(tea, "newEncryptor", MethodType.methodType(teaCtr, teaKey)));
+            CTR_PARALLEL = erase(lookup.findVirtual(teaCtr, "parallel",
+                    MethodType.methodType(teaCtr, ForkJoinPool.class, int.class)));
+            CTR_DO_FINAL = erase(lookup.findVirtual(teaCtr, "doFinal", MethodType.methodType(byte[].class, byte[].class)));
+            OPTIONS = erase(lookup.findStatic(options, "defaults", MethodType.methodType(options)));
+            OPTIONS_PARALLEL = erase(lookup.findVirtual(options, "parallel",
+                    MethodType.methodType(options, ForkJoinPool.class)));
+            CAPACITY = lookup.findStatic(embedder, "capacity", MethodType.methodType(int.class, BufferedImage.class));
+            EMBED = erase(lookup.findStatic(embedder, "embed",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class, byte[].class, options)));
+            EXTRACT = erase(lookup.findStatic(extractor, "extract",
+                    MethodType.methodType(byte[].class, BufferedImage.class, options)));
+            EMBED_FILE = lookup.findStatic(embedder, "embed",
+                    MethodType.methodType(void.class, Path.class, byte[].class, Path.class));
+            EXTRACT_LAZY = lookup.findStatic(extractor, "extractLazy", MethodType.methodType(byte[].class, Path.class));
+            WRITE_BMP = lookup.findStatic(bmpWriter, "write",
+                    MethodType.methodType(long.class, BufferedImage.class, Path.class));
+            WRITE_BMP_STREAM = lookup.findStatic(bmpWriter, "write",
+                    MethodType.methodType(long.class, BufferedImage.class, OutputStream.class));
+            PNG_DEFAULTS = erase(lookup.findStatic(png, "defaults", MethodType.methodType(png)));
+            PNG_LEVEL = erase(lookup.findVirtual(png, "level", MethodType.methodType(png, int.class)));
+            PNG_STRATEGY = erase(lookup.findVirtual(png, "strategy", MethodType.methodType(png, int.class)));
+            PNG_FILTER = erase(lookup.findVirtual(png, "filter", MethodType.methodType(png, int.class)));
+            PNG_PARALLEL = erase(lookup.findVirtual(png, "parallel",
+                    MethodType.methodType(png, ForkJoinPool.class)));
+            PNG_WRITE = erase(lookup.findVirtual(png, "write",
+                    MethodType.methodType(long.class, BufferedImage.class, OutputStream.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Api() {
+    }
+
+    // Replace application types in the signature with Object so callers can name it
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (type.returnType().getPackageName().isEmpty()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    static Object teaKey(byte[] key) {
+        try {
+            return (Object) TEA_KEY_OF.invokeExact(key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] encrypt(byte[] data, Object key) {
+        try {
+            return (byte[]) ENCRYPT.invokeExact(data, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] decrypt(byte[] data, Object key) {
+        try {
+            return (byte[]) DECRYPT.invokeExact(data, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // A fresh encryptor per call: each one has its own IV and is spent after doFinal
+    static byte[] ctr(byte[] data, Object key, ForkJoinPool pool, int threshold) {
+        try {
+            Object ctr = (Object) NEW_ENCRYPTOR.invokeExact(key);
+            ctr = (Object) CTR_PARALLEL.invokeExact(ctr, pool, threshold);
+            return (byte[]) CTR_DO_FINAL.invokeExact(ctr, data);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object options(ForkJoinPool pool) {
+        try {
+            Object options = (Object) OPTIONS.invokeExact();
+            return (Object) OPTIONS_PARALLEL.invokeExact(options, pool);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int capacity(BufferedImage image) {
+        try {
+            return (int) CAPACITY.invokeExact(image);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static BufferedImage embed(BufferedImage image, byte[] message, Object options) {
+        try {
+            return (BufferedImage) EMBED.invokeExact(image, message, options);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] extract(BufferedImage image, Object options) {
+        try {
+            return (byte[]) EXTRACT.invokeExact(image, options);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void embed(Path carrier, byte[] message, Path output) {
+        try {
+            EMBED_FILE.invokeExact(carrier, message, output);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] extractLazy(Path stego) {
+        try {
+            return (byte[]) EXTRACT_LAZY.invokeExact(stego);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long writeBmp(BufferedImage image, Path file) {
+        try {
+            return (long) WRITE_BMP.invokeExact(image, file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long writeBmp(BufferedImage image, OutputStream out) {
+        try {
+            return (long) WRITE_BMP_STREAM.invokeExact(image, out);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param level Deflate level, 0 (store) to 9
+     * @param strategy Deflater strategy
+     * @param filter PNG row filter, or -1 for adaptive
+     * @param pool Pool for parallel deflate, or null for one thread
+     * @return A configured PngEncoder
+     */
+    static Object pngEncoder(int level, int strategy, int filter, ForkJoinPool pool) {
+        try {
+            Object encoder = (Object) PNG_LEVEL.invokeExact((Object) PNG_DEFAULTS.invokeExact(), level);
+            encoder = (Object) PNG_STRATEGY.invokeExact(encoder, strategy);
+            if (filter >= 0) {
+                encoder = (Object) PNG_FILTER.invokeExact(encoder, filter);
+            }
+            return pool == null ? encoder : (Object) PNG_PARALLEL.invokeExact(encoder, pool);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long writePng(Object encoder, BufferedImage image, OutputStream out) {
+        try {
+            return (long) PNG_WRITE.invokeExact(encoder, image, out);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
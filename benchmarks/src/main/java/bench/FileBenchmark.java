@@ -0,0 +1,85 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end file-to-file latency: decode the carrier, embed, encode the PNG
+ * stego image; and lazy extraction from a stego file. Carriers come as PNG,
+ * BMP or JPEG so decoder costs show up next to the LSB work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmark {
+
+    @Param({"512", "2048"})
+    public int side;
+
+    @Param({"png", "bmp", "jpg"})
+    public String format;
+
+    @Param({"4096"})
+    public int payload;
+
+    private Path dir;
+    private Path carrier;
+    private Path output;
+    private Path stego;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("stego-bench");
+        BufferedImage image = Images.create(side, side, "3BYTE_BGR");
+        carrier = dir.resolve("carrier." + format);
+        if (format.equals("bmp")) {
+            Api.writeBmp(image, carrier);
+        } else if (!ImageIO.write(image, format, carrier.toFile())) {
+            throw new IOException("No writer for " + format);
+        }
+        output = dir.resolve("out.png");
+        stego = dir.resolve("stego.png");
+        message = Images.payload(payload);
+        Api.embed(carrier, message, stego);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void embedFile() {
+        Api.embed(carrier, message, output);
+    }
+
+    @Benchmark
+    public byte[] extractFile() {
+        return Api.extractLazy(stego);
+    }
+}
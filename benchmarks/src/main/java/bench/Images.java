@@ -0,0 +1,50 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/** Deterministic carrier images: smooth gradients with sensor-like noise. */
+final class Images {
+
+    private Images() {
+    }
+
+    /**
+     * @param type "3BYTE_BGR", "INT_ARGB" or "BYTE_INDEXED"
+     * @return The matching BufferedImage type constant
+     */
+    static int type(String type) {
+        switch (type) {
+            case "3BYTE_BGR": return BufferedImage.TYPE_3BYTE_BGR;
+            case "INT_ARGB": return BufferedImage.TYPE_INT_ARGB;
+            case "BYTE_INDEXED": return BufferedImage.TYPE_BYTE_INDEXED;
+            default: throw new IllegalArgumentException("Unknown image type " + type);
+        }
+    }
+
+    static BufferedImage create(int width, int height, String type) {
+        BufferedImage image = new BufferedImage(width, height, type(type));
+        Random random = new Random(width * 31L + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(255 * x / width + random.nextInt(9) - 4);
+                int g = clamp(255 * y / height + random.nextInt(9) - 4);
+                int b = clamp(128 + random.nextInt(9) - 4);
+                row[x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        new Random(length).nextBytes(payload);
+        return payload;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory embed and extract across image sizes and types, with the
+ * payload filling half the carrier. Indexed carriers include the conversion
+ * to a BGR copy, which is part of what embedding them costs. Embedding
+ * rewrites the same carrier each time, which is the same work as a fresh one.
+ * The {@link Workers} pool size gives scaling from one core up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LsbBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int side;
+
+    @Param({"3BYTE_BGR", "INT_ARGB", "BYTE_INDEXED"})
+    public String type;
+
+    private BufferedImage carrier;
+    private BufferedImage stego;
+    private byte[] message;
+    private Object options;
+
+    @Setup
+    public void setup(Workers workers) {
+        carrier = Images.create(side, side, type);
+        message = Images.payload(Api.capacity(carrier) / 2);
+        options = Api.options(workers.pool);
+        stego = Api.embed(Images.create(side, side, type), message, options);
+    }
+
+    @Benchmark
+    public BufferedImage embed() {
+        return Api.embed(carrier, message, options);
+    }
+
+    @Benchmark
+    public byte[] extract() {
+        return Api.extract(stego, options);
+    }
+}
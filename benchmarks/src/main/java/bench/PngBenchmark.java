@@ -0,0 +1,110 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Stego image output cost across encoder settings, to pick the output stage
+ * for a pipeline: the JDK PNG writer, PngEncoder at several levels, filters
+ * and strategies, sequential and parallel, and uncompressed BMP. Output goes
+ * to a null stream; setup prints the encoded size of each setting so it can
+ * be read against the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngBenchmark {
+
+    @Param({"1024", "4096"})
+    public int side;
+
+    @Param({"imageio", "level4", "level1", "level1-sub", "level6-filtered", "level9", "huffman-up",
+            "stored", "level4-parallel", "level1-parallel", "level9-parallel", "bmp"})
+    public String setting;
+
+    private BufferedImage image;
+    private Object encoder;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        image = Images.create(side, side, "3BYTE_BGR");
+        if (setting.endsWith("-parallel")) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        switch (setting) {
+            case "imageio":
+            case "bmp":
+                break;
+            case "level4": encoder = Api.pngEncoder(4, Deflater.DEFAULT_STRATEGY, -1, null); break;
+            case "level1": encoder = Api.pngEncoder(1, Deflater.DEFAULT_STRATEGY, -1, null); break;
+            case "level1-sub": encoder = Api.pngEncoder(1, Deflater.DEFAULT_STRATEGY, 1, null); break;
+            case "level6-filtered": encoder = Api.pngEncoder(6, Deflater.FILTERED, -1, null); break;
+            case "level9": encoder = Api.pngEncoder(9, Deflater.DEFAULT_STRATEGY, -1, null); break;
+            case "huffman-up": encoder = Api.pngEncoder(4, Deflater.HUFFMAN_ONLY, 2, null); break;
+            case "stored": encoder = Api.pngEncoder(0, Deflater.DEFAULT_STRATEGY, 0, null); break;
+            case "level4-parallel": encoder = Api.pngEncoder(4, Deflater.DEFAULT_STRATEGY, -1, pool); break;
+            case "level1-parallel": encoder = Api.pngEncoder(1, Deflater.DEFAULT_STRATEGY, -1, pool); break;
+            case "level9-parallel": encoder = Api.pngEncoder(9, Deflater.DEFAULT_STRATEGY, -1, pool); break;
+            default: throw new IllegalArgumentException("Unknown setting " + setting);
+        }
+        System.out.printf(Locale.ROOT, "%n%s at %dx%d: %d bytes%n", setting, side, side, encode());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        Counter sink = new Counter();
+        if (setting.equals("imageio")) {
+            ImageIO.write(image, "png", sink);
+            return sink.count;
+        }
+        if (setting.equals("bmp")) {
+            return Api.writeBmp(image, sink);
+        }
+        return Api.writePng(encoder, image, sink);
+    }
+
+    // Discards output, keeping the byte count
+    private static final class Counter extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TEA encrypt and decrypt with PKCS#7 padding, and TEA-CTR, across payload
+ * sizes. Besides ops/s, the {@code bytes} counter reports plaintext
+ * throughput in bytes per second. CTR runs on a {@link Workers} pool, split
+ * into chunks of {@link #CTR_CHUNK} bytes or more.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TeaBenchmark {
+
+    /** Smallest CTR chunk handed to a worker, so 1 MB inputs still spread over the pool. */
+    public static final int CTR_CHUNK = 64 * 1024;
+
+    @Param({"64", "4096", "65536", "1048576"})
+    public int size;
+
+    private Object key;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+
+    /** Bytes processed, reported as a rate. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        key = Api.teaKey("0123456789abcdef".getBytes());
+        plaintext = Images.payload(size);
+        ciphertext = Api.encrypt(plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] encrypt(Bytes counter) {
+        counter.bytes += size;
+        return Api.encrypt(plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt(Bytes counter) {
+        counter.bytes += size;
+        return Api.decrypt(ciphertext, key);
+    }
+
+    @Benchmark
+    public byte[] ctr(Bytes counter, Workers workers) {
+        counter.bytes += size;
+        return Api.ctr(plaintext, key, workers.pool, CTR_CHUNK);
+    }
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A dedicated pool of {@code threads} workers for the parallel paths, so a
+ * run with {@code -p threads=1,2,4,8,16} gives the core scaling curve. Zero
+ * means no pool: the work stays on the benchmark thread.
+ */
+@State(Scope.Benchmark)
+public class Workers {
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        pool = threads == 0 ? null : new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Splitting a payload into shards and joining them back, with and without parity. */
+class MultiCarrierTest {
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        new Random(length).nextBytes(payload);
+        return payload;
+    }
+
+    private static List<MultiCarrier.Shard> parse(List<byte[]> split) {
+        List<MultiCarrier.Shard> shards = new ArrayList<>();
+        for (byte[] bytes : split) {
+            MultiCarrier.Shard shard = MultiCarrier.Shard.parse(bytes);
+            assertNotNull(shard);
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    @Test
+    void splitAndJoin() throws IOException {
+        // 1001 does not divide by 4, so the last shard is padded
+        byte[] payload = payload(1001);
+        List<MultiCarrier.Shard> shards = parse(MultiCarrier.split(payload, 4, false));
+        assertEquals(4, shards.size());
+        assertArrayEquals(payload, MultiCarrier.join(shards));
+    }
+
+    @Test
+    void parityRebuildsAnyOneMissingDataShard() throws IOException {
+        byte[] payload = payload(1001);
+        List<byte[]> split = MultiCarrier.split(payload, 4, true);
+        assertEquals(5, split.size());
+        for (int missing = 0; missing < split.size(); missing++) {
+            List<MultiCarrier.Shard> shards = parse(split);
+            shards.remove(missing);
+            assertArrayEquals(payload, MultiCarrier.join(shards), "without shard " + missing);
+        }
+    }
+
+    @Test
+    void missingShardWithoutParityFails() {
+        List<MultiCarrier.Shard> shards = parse(MultiCarrier.split(payload(100), 3, false));
+        shards.remove(1);
+        assertThrows(IOException.class, () -> MultiCarrier.join(shards));
+    }
+
+    @Test
+    void twoMissingShardsFail() {
+        List<MultiCarrier.Shard> shards = parse(MultiCarrier.split(payload(100), 3, true));
+        shards.remove(2);
+        shards.remove(0);
+        assertThrows(IOException.class, () -> MultiCarrier.join(shards));
+    }
+
+    @Test
+    void mixedSetsFail() {
+        List<MultiCarrier.Shard> shards = parse(MultiCarrier.split(payload(100), 2, false));
+        shards.set(1, parse(MultiCarrier.split(payload(100), 2, false)).get(1));
+        assertThrows(IOException.class, () -> MultiCarrier.join(shards));
+    }
+
+    @Test
+    void corruptShardFailsTheChecksum() {
+        List<byte[]> split = MultiCarrier.split(payload(100), 2, false);
+        split.get(0)[MultiCarrier.MANIFEST_BYTES + 3] ^= 1;
+        List<MultiCarrier.Shard> shards = parse(split);
+        assertThrows(IOException.class, () -> MultiCarrier.join(shards));
+    }
+}
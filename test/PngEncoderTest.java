@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/** Images written by PngEncoder decode to the same pixels, and stego files survive the trip. */
+class PngEncoderTest {
+
+    private static BufferedImage image(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    private static BufferedImage roundTrip(PngEncoder encoder, BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = encoder.write(image, out);
+        assertEquals(out.size(), written);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(decoded);
+        return decoded;
+    }
+
+    @Test
+    void settingsRoundTrip() throws IOException {
+        PngEncoder[] encoders = {
+                PngEncoder.defaults(),
+                PngEncoder.uncompressed(),
+                PngEncoder.defaults().level(9).strategy(Deflater.FILTERED),
+                PngEncoder.defaults().level(1).filter(4),
+                PngEncoder.defaults().strategy(Deflater.HUFFMAN_ONLY).filter(2),
+                // Small bands so the parallel path really splits
+                PngEncoder.defaults().parallel().chunkSize(32 * 1024),
+        };
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB}) {
+            BufferedImage image = image(301, 203, type);
+            for (PngEncoder encoder : encoders) {
+                assertSamePixels(image, roundTrip(encoder, image));
+            }
+        }
+    }
+
+    @Test
+    void stegoFileRoundTrip(@TempDir Path dir) throws IOException {
+        Path carrier = dir.resolve("carrier.png");
+        Path stego = dir.resolve("stego.png");
+        PngEncoder.defaults().write(image(120, 80, BufferedImage.TYPE_3BYTE_BGR), carrier);
+        byte[] message = "hidden in the low bits".getBytes(StandardCharsets.UTF_8);
+
+        LsbEmbedder.embed(carrier, message, stego);
+        assertArrayEquals(message, LsbExtractor.extractLazy(stego));
+        assertArrayEquals(message, LsbExtractor.extract(ImageIO.read(stego.toFile())));
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Sealing round trips, and every kind of tampering fails the tag. */
+class SealedPayloadTest {
+
+    private static final byte[] MESSAGE = "attack at dawn".getBytes(StandardCharsets.UTF_8);
+
+    private static TeaKey key(int seed) {
+        byte[] raw = new byte[16];
+        Arrays.fill(raw, (byte) seed);
+        return TeaKey.of(raw);
+    }
+
+    @Test
+    void sealAndOpen() throws Exception {
+        byte[] salt = SealedPayload.newSalt();
+        byte[] sealed = SealedPayload.seal(MESSAGE, key(1), salt);
+        assertEquals(MESSAGE.length + SealedPayload.OVERHEAD, sealed.length);
+        assertArrayEquals(salt, SealedPayload.salt(sealed));
+        assertArrayEquals(MESSAGE, SealedPayload.open(sealed, key(1)));
+    }
+
+    @Test
+    void openWithPassword() throws Exception {
+        byte[] sealed = SealedPayload.seal(MESSAGE, "correct horse".toCharArray());
+        assertArrayEquals(MESSAGE, SealedPayload.open(sealed, "correct horse".toCharArray()));
+        assertThrows(AEADBadTagException.class, () -> SealedPayload.open(sealed, "wrong horse".toCharArray()));
+    }
+
+    @Test
+    void wrongKeyFails() {
+        byte[] sealed = SealedPayload.seal(MESSAGE, key(1), SealedPayload.newSalt());
+        assertThrows(AEADBadTagException.class, () -> SealedPayload.open(sealed, key(2)));
+    }
+
+    @Test
+    void anyChangedByteFails() {
+        byte[] sealed = SealedPayload.seal(MESSAGE, key(1), SealedPayload.newSalt());
+        // Salt, IV, ciphertext and tag are all covered; the version byte is checked first
+        for (int i = 1; i < sealed.length; i++) {
+            byte[] tampered = sealed.clone();
+            tampered[i] ^= 1;
+            assertThrows(AEADBadTagException.class, () -> SealedPayload.open(tampered, key(1)), "byte " + i);
+        }
+        byte[] truncated = Arrays.copyOf(sealed, sealed.length - 1);
+        assertThrows(AEADBadTagException.class, () -> SealedPayload.open(truncated, key(1)));
+    }
+
+    @Test
+    void notSealedIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SealedPayload.open(new byte[10], key(1)));
+        byte[] sealed = SealedPayload.seal(MESSAGE, key(1), SealedPayload.newSalt());
+        sealed[0] = 2;
+        assertThrows(IllegalArgumentException.class, () -> SealedPayload.open(sealed, key(1)));
+    }
+
+    @Test
+    void sealingTwiceGivesDifferentCiphertext() {
+        byte[] salt = SealedPayload.newSalt();
+        byte[] a = SealedPayload.seal(MESSAGE, key(1), salt);
+        byte[] b = SealedPayload.seal(MESSAGE, key(1), salt);
+        assertFalse(Arrays.equals(a, b));
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Header serialization and the payload checksum that guards extraction. */
+class StegoHeaderTest {
+
+    private static final byte[] PAYLOAD = "a payload with a checksum".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void roundTrip() {
+        StegoHeader header = StegoHeader.singleBit(3, StegoHeader.FLAG_COMPRESSED | StegoHeader.FLAG_SEALED, PAYLOAD);
+        byte[] bytes = header.toBytes();
+        assertEquals(StegoHeader.BYTES, bytes.length);
+        assertEquals(StegoHeader.BYTES, StegoHeader.size(bytes));
+
+        StegoHeader parsed = StegoHeader.parse(bytes, 3);
+        assertNotNull(parsed);
+        assertEquals(PAYLOAD.length, parsed.length);
+        assertEquals(header.crc, parsed.crc);
+        assertTrue(parsed.isSingleBit());
+        assertTrue(parsed.hasFlag(StegoHeader.FLAG_SEALED));
+        assertFalse(parsed.hasFlag(StegoHeader.FLAG_SHARD));
+        assertArrayEquals(bytes, parsed.toBytes());
+    }
+
+    @Test
+    void checksumRejectsChangedPayload() {
+        StegoHeader header = StegoHeader.singleBit(3, 0, PAYLOAD);
+        assertTrue(header.matches(PAYLOAD));
+        byte[] changed = PAYLOAD.clone();
+        changed[5] ^= 0x10;
+        assertFalse(header.matches(changed));
+    }
+
+    @Test
+    void unknownVersionAndBadFieldsAreRejected() {
+        byte[] bytes = StegoHeader.singleBit(3, 0, PAYLOAD).toBytes();
+        byte[] future = bytes.clone();
+        future[2] = 9;
+        assertEquals(-1, StegoHeader.size(future));
+        assertNull(StegoHeader.parse(future, 3));
+
+        byte[] noBits = bytes.clone();
+        noBits[4] = 0;
+        noBits[5] = 0;
+        assertNull(StegoHeader.parse(noBits, 3));
+
+        // A fourth channel on a carrier with three samples per pixel
+        byte[] extraChannel = bytes.clone();
+        extraChannel[5] |= 1;
+        assertNull(StegoHeader.parse(extraChannel, 3));
+    }
+
+    @Test
+    void extractionRejectsCorruptedPayloadBits() {
+        BufferedImage carrier = new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage stego = LsbEmbedder.embed(carrier, PAYLOAD, StegoOptions.defaults().header(true));
+        assertArrayEquals(PAYLOAD, LsbExtractor.extract(stego));
+
+        // Samples after the header carry the payload; flip one of them
+        byte[] samples = ((DataBufferByte) stego.getRaster().getDataBuffer()).getData();
+        samples[StegoHeader.SAMPLES + 20] ^= 1;
+        assertNull(LsbExtractor.extract(stego));
+    }
+}
@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Known-answer vectors for the TEA and XTEA block rounds and their CTR mode. */
+class TeaTest {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    // Reference vectors: TEA with an all-zero key and block, XTEA from the
+    // original paper's test set (32 cycles)
+    private static final byte[] TEA_KEY = new byte[16];
+    private static final String TEA_PLAIN = "0000000000000000";
+    private static final String TEA_CIPHER = "41ea3a0a94baa940";
+    private static final byte[] XTEA_KEY = HEX.parseHex("000102030405060708090a0b0c0d0e0f");
+    private static final String XTEA_PLAIN = "4142434445464748";
+    private static final String XTEA_CIPHER = "497df3d072612cb5";
+
+    @Test
+    void teaKnownAnswer() {
+        byte[] block = HEX.parseHex(TEA_PLAIN);
+        TEA.encryptBlock(block, 0, block, 0, TEA.formatKey(TEA_KEY));
+        assertEquals(TEA_CIPHER, HEX.formatHex(block));
+        TEA.decryptBlock(block, 0, block, 0, TEA.formatKey(TEA_KEY));
+        assertEquals(TEA_PLAIN, HEX.formatHex(block));
+    }
+
+    @Test
+    void xteaKnownAnswer() {
+        long plain = Long.parseUnsignedLong(XTEA_PLAIN, 16);
+        long cipher = Long.parseUnsignedLong(XTEA_CIPHER, 16);
+        int[] k = TEA.formatKey(XTEA_KEY);
+        assertEquals(cipher, XTEA.encryptBlock((int) (plain >>> 32), (int) plain, k));
+        assertEquals(plain, XTEA.decryptBlock((int) (cipher >>> 32), (int) cipher, k));
+
+        // The precomputed round keys must give the same result as the reference rounds
+        TeaKey key = TeaKey.of(XTEA_KEY);
+        assertEquals(cipher, XTEA.encryptBlock((int) (plain >>> 32), (int) plain, key));
+        assertEquals(plain, XTEA.decryptBlock((int) (cipher >>> 32), (int) cipher, key));
+    }
+
+    @Test
+    void ctrKeystreamIsTheCipherOfTheCounter() {
+        // Zero plaintext exposes the keystream: E(iv), then E(iv + 1)
+        byte[] keystream = XTEA.newCtr(TeaKey.of(XTEA_KEY), HEX.parseHex(XTEA_PLAIN)).doFinal(new byte[16]);
+        assertEquals(XTEA_CIPHER, HEX.formatHex(keystream, 0, 8));
+        long next = Long.parseUnsignedLong(XTEA_PLAIN, 16) + 1;
+        long expected = XTEA.encryptBlock((int) (next >>> 32), (int) next, TEA.formatKey(XTEA_KEY));
+        assertEquals(String.format("%016x", expected), HEX.formatHex(keystream, 8, 16));
+
+        byte[] teaKeystream = TEA.newDecryptor(TEA_KEY, HEX.parseHex(TEA_PLAIN)).doFinal(new byte[8]);
+        assertEquals(TEA_CIPHER, HEX.formatHex(teaKeystream));
+    }
+
+    @Test
+    void ctrMatchesProviderAndSplitUpdates() throws Exception {
+        byte[] iv = HEX.parseHex("0123456789abcdef");
+        byte[] data = new byte[1001];
+        new Random(1).nextBytes(data);
+        byte[] oneShot = XTEA.newCtr(TeaKey.of(XTEA_KEY), iv).doFinal(data);
+
+        Cipher cipher = Cipher.getInstance("XTEA/CTR/NoPadding", TeaProvider.install());
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(XTEA_KEY, "XTEA"), new IvParameterSpec(iv));
+        assertArrayEquals(oneShot, cipher.doFinal(data));
+
+        // Updates that start and end inside a block continue the same keystream
+        TeaCtr ctr = XTEA.newCtr(TeaKey.of(XTEA_KEY), iv);
+        byte[] split = new byte[data.length];
+        ctr.update(data, 0, 3, split, 0);
+        ctr.update(data, 3, 500, split, 3);
+        ctr.update(data, 503, data.length - 503, split, 503);
+        assertArrayEquals(oneShot, split);
+
+        assertArrayEquals(data, XTEA.newCtr(TeaKey.of(XTEA_KEY), iv).doFinal(oneShot));
+    }
+
+    @Test
+    void ctrIsSpentAfterDoFinal() {
+        TeaCtr ctr = TEA.newEncryptor(TEA_KEY);
+        ctr.doFinal(new byte[8]);
+        assertThrows(IllegalStateException.class, () -> ctr.doFinal(new byte[8]));
+    }
+
+    @Test
+    void paddedRoundTrip() {
+        byte[] key = Arrays.copyOf(XTEA_KEY, 16);
+        for (int length : new int[] {0, 1, 7, 8, 9, 100}) {
+            byte[] plain = Arrays.copyOf("The quick brown fox".getBytes(StandardCharsets.US_ASCII), length);
+            byte[] cipher = TEA.encryptWithPadding(plain, key);
+            assertEquals(0, cipher.length % 8);
+            assertArrayEquals(plain, TEA.decryptWithPadding(cipher, key));
+        }
+    }
+}